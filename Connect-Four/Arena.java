@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays matches between two agents without reading input or printing moves. Every game runs
+ * on its own virtual thread with its own boards and searches, so thousands of games can be
+ * queued at once, and the results are only printed as tables at the end. Games start with a
+ * few random moves so that two deterministic agents do not play the same game every time, and
+ * the agents take turns playing first.
+ */
+public class Arena {
+
+	protected int columns, rows, k;
+	protected Agent[] agents;
+	protected int games;
+	protected int openingMoves;
+	protected long seed;
+	protected LongAdder draws = new LongAdder();
+
+	/**
+	 * Creates an arena
+	 * @param columns the number of columns
+	 * @param rows the number of rows
+	 * @param k the number of tiles to connect
+	 * @param first the first agent, who plays first in even games
+	 * @param second the second agent
+	 * @param games the number of games
+	 */
+	public Arena(int columns, int rows, int k, Agent first, Agent second, int games) {
+		this.columns = columns;
+		this.rows = rows;
+		this.k = k;
+		agents = new Agent[] {first, second};
+		this.games = games;
+		openingMoves = 2;
+		seed = 1;
+	}
+
+	/**
+	 * Sets the number of random moves each game starts with
+	 * @param n the number of moves
+	 */
+	public void setOpeningMoves(int n) {
+		openingMoves = n;
+	}
+
+	/**
+	 * Sets the seed the random openings are made from
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Plays every game, one virtual thread each, and waits for them to finish
+	 */
+	public void run() {
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < games; i++) {
+				int game = i;
+				results.add(executor.submit(() -> playGame(game)));
+			}
+		}
+		try {
+			for (Future<?> f : results) f.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Plays one game
+	 * @param game the number of the game, which picks its opening and who plays first
+	 */
+	public void playGame(int game) {
+		Board b = new Board(columns, rows, k);
+		b.newBoard();
+		Random random = new Random(seed * 0x9E3779B97F4A7C15L + game);
+		int[] moves = new int[columns];
+		for (int i = 0; i < openingMoves && !b.gameOver(); i++) {
+			int n = b.generateMoves(moves);
+			b.play(moves[random.nextInt(n)]);
+		}
+		Agent x = agents[game % 2];
+		Agent o = agents[1 - game % 2];
+		Player[] players = {x.newPlayer(), o.newPlayer()};
+		while (!b.gameOver()) {
+			Player p = players[b.getPlayer() == 'x' ? 0 : 1];
+			b.play(p.move(b));
+		}
+		int result = b.terminalValue();
+		if (result == 0) draws.increment();
+		else if (result == 1) {
+			x.wins.increment();
+			o.losses.increment();
+		}
+		else {
+			o.wins.increment();
+			x.losses.increment();
+		}
+		for (Player p : players) p.close();
+	}
+
+	/**
+	 * Prints the results of both agents. Monte Carlo agents count playouts as nodes
+	 */
+	public void printResults() {
+		System.out.printf("%dx%dx%d, %d games, %d random opening moves%n", columns, rows, k,
+				games, openingMoves);
+		System.out.printf("%-16s %8s %8s %8s %10s %14s%n", "Agent", "Wins", "Draws", "Losses",
+				"ms/move", "nodes/s");
+		for (Agent a : agents) {
+			long moves = a.moves.sum();
+			long nanos = a.nanos.sum();
+			double msPerMove = moves == 0 ? 0 : nanos / 1e6 / moves;
+			long nodesPerSecond = nanos == 0 ? 0 : (long) (a.nodes.sum() * 1e9 / nanos);
+			System.out.printf("%-16s %8d %8d %8d %10.3f %14d%n", a.name, a.wins.sum(), draws.sum(),
+					a.losses.sum(), msPerMove, nodesPerSecond);
+		}
+	}
+
+	/**
+	 * An agent's settings and its results over every game. The counters are shared by
+	 * every game's thread
+	 */
+	public static class Agent {
+
+		public static final int RANDOM = 1;
+		public static final int MINIMAX = 2;
+		public static final int ALPHA_BETA = 3;
+		public static final int H_MINIMAX = 4;
+		public static final int TIMED = 5;
+		public static final int SOLVER = 6;
+		public static final int MONTE_CARLO = 7;
+		protected String name;
+		protected int type;
+		protected int limit;
+		protected LongAdder wins = new LongAdder();
+		protected LongAdder losses = new LongAdder();
+		protected LongAdder moves = new LongAdder();
+		protected LongAdder nanos = new LongAdder();
+		protected LongAdder nodes = new LongAdder();
+
+		/**
+		 * Creates an agent
+		 * @param name the name shown in the results
+		 * @param type the type of search
+		 * @param limit the depth for H_MINIMAX, milliseconds for TIMED, or playouts for
+		 * MONTE_CARLO
+		 */
+		public Agent(String name, int type, int limit) {
+			this.name = name;
+			this.type = type;
+			this.limit = limit;
+		}
+
+		/**
+		 * Reads an agent from a name such as random, minimax, ab, h:6, timed:100, solver,
+		 * or mcts:5000
+		 * @param s the name
+		 * @return the agent
+		 */
+		public static Agent parse(String s) {
+			String[] parts = s.split(":");
+			int limit = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+			switch (parts[0]) {
+				case "random": return new Agent(s, RANDOM, 0);
+				case "minimax": return new Agent(s, MINIMAX, 0);
+				case "ab": return new Agent(s, ALPHA_BETA, 0);
+				case "h": return new Agent(s, H_MINIMAX, limit);
+				case "timed": return new Agent(s, TIMED, limit);
+				case "solver": return new Agent(s, SOLVER, 0);
+				case "mcts": return new Agent(s, MONTE_CARLO, limit);
+				default: throw new IllegalArgumentException("Unknown agent: " + s);
+			}
+		}
+
+		/**
+		 * Creates the searches for one game
+		 * @return the player
+		 */
+		public Player newPlayer() {
+			return new Player(this);
+		}
+	}
+
+	/**
+	 * An agent playing one game, with its own searches
+	 */
+	public static class Player {
+
+		protected Agent agent;
+		protected Search search;
+		protected MonteCarloSearch monteCarlo;
+
+		public Player(Agent agent) {
+			this.agent = agent;
+			search = new Search(new TranspositionTable(14));
+			if (agent.type == Agent.MONTE_CARLO) {
+				monteCarlo = new MonteCarloSearch(1);
+				monteCarlo.setPlayouts(agent.limit);
+			}
+		}
+
+		/**
+		 * Picks a move and counts its time and nodes
+		 * @param b the board
+		 * @return the move
+		 */
+		public Move move(Board b) {
+			long start = System.nanoTime();
+			long before = search.getNodes();
+			if (search.getSolver() != null) before += search.getSolver().getNodes();
+			Move m;
+			switch (agent.type) {
+				case Agent.RANDOM: m = search.random(b); break;
+				case Agent.MINIMAX: m = search.minimax(b); break;
+				case Agent.ALPHA_BETA: m = search.abMinimax(b); break;
+				case Agent.H_MINIMAX: m = search.hMinimax(b, agent.limit); break;
+				case Agent.TIMED: m = search.timedHMinimax(b, agent.limit); break;
+				case Agent.SOLVER: m = search.solve(b); break;
+				default: m = monteCarlo.search(b); break;
+			}
+			agent.nanos.add(System.nanoTime() - start);
+			agent.moves.increment();
+			long after = search.getNodes();
+			if (search.getSolver() != null) after += search.getSolver().getNodes();
+			if (monteCarlo != null) after += monteCarlo.getPlayouts();
+			agent.nodes.add(after - before);
+			return m;
+		}
+
+		/**
+		 * Stops any threads the searches started
+		 */
+		public void close() {
+			if (monteCarlo != null) monteCarlo.shutdown();
+		}
+	}
+
+	/**
+	 * Plays a match from the command line:
+	 * java Arena columns rows k first second games [openingMoves]
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length < 6) {
+			System.out.println("Usage: java Arena columns rows k first second games [openingMoves]");
+			System.out.println("Agents: random, minimax, ab, h:depth, timed:millis, solver, mcts:playouts");
+			return;
+		}
+		Arena arena = new Arena(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), Agent.parse(args[3]), Agent.parse(args[4]),
+				Integer.parseInt(args[5]));
+		if (args.length > 6) arena.setOpeningMoves(Integer.parseInt(args[6]));
+		long start = System.nanoTime();
+		arena.run();
+		arena.printResults();
+		System.out.printf("Finished in %.1f s%n", (System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Microbenchmarks for the board and the searches, and perft node counts that check the
+ * board against a plain reference. Each benchmark runs a few warm-up iterations so the JIT
+ * has compiled it, then times several iterations of about half a second each and reports the
+ * mean time per position with its standard deviation. Every result is added to a sink so the
+ * work cannot be optimized away. The positions are the same on every run: the empty board and
+ * boards after a fixed number of seeded random moves that do not end the game.
+ *
+ * Usage: java Benchmark [perft | name filters...]
+ */
+public class Benchmark {
+
+	public static final int WARMUPS = 3;
+	public static final int ITERATIONS = 5;
+	public static final long ITERATION_NANOS = 500000000L;
+	public static volatile long sink;
+
+	/**
+	 * Creates the fixed positions for a board size
+	 * @param columns the number of columns
+	 * @param rows the number of rows
+	 * @param k the number of tiles to connect
+	 * @param plies the number of random moves before each position, one position each
+	 * @return the positions
+	 */
+	public static Board[] positions(int columns, int rows, int k, int... plies) {
+		Random random = new Random(42);
+		Board[] boards = new Board[plies.length];
+		for (int i = 0; i < plies.length; i++) {
+			Board b = new Board(columns, rows, k);
+			b.newBoard();
+			while (b.moveCount < plies[i]) {
+				int x = random.nextInt(columns);
+				if (!b.canPlay(x)) continue;
+				b.play(x);
+				if (b.gameOver()) b.undo();
+			}
+			boards[i] = b;
+		}
+		return boards;
+	}
+
+	/**
+	 * Times a benchmark and prints the result
+	 * @param name the name of the benchmark
+	 * @param operations the number of positions each call works on
+	 * @param op the benchmark, returning a result for the sink
+	 */
+	public static void measure(String name, int operations, LongSupplier op) {
+		for (int i = 0; i < WARMUPS; i++) iteration(op);
+		double[] samples = new double[ITERATIONS];
+		double mean = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			samples[i] = iteration(op) / operations;
+			mean += samples[i] / ITERATIONS;
+		}
+		double variance = 0;
+		for (double s : samples) variance += (s - mean) * (s - mean) / ITERATIONS;
+		System.out.printf("%-32s %14.1f ns/op  +- %.1f%n", name, mean, Math.sqrt(variance));
+	}
+
+	/**
+	 * Runs a benchmark over and over for one iteration
+	 * @param op the benchmark
+	 * @return the time of one call in nanoseconds
+	 */
+	public static double iteration(LongSupplier op) {
+		long calls = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink += op.getAsLong();
+			calls++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ITERATION_NANOS);
+		return (double) elapsed / calls;
+	}
+
+	/**
+	 * Counts the positions at a depth by playing and undoing moves in place. A finished game
+	 * counts as one position
+	 * @param b the board
+	 * @param depth the depth
+	 * @return the number of positions
+	 */
+	public static long perft(Board b, int depth) {
+		if (depth == 0 || b.gameOver()) return 1;
+		long count = 0;
+		for (int x = 0; x < b.columns; x++) {
+			if (!b.canPlay(x)) continue;
+			b.play(x);
+			count += perft(b, depth - 1);
+			b.undo();
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the positions at a depth with actions and makeMove, which copy the board
+	 * @param b the board
+	 * @param depth the depth
+	 * @return the number of positions
+	 */
+	public static long perftCopy(Board b, int depth) {
+		if (depth == 0 || b.gameOver()) return 1;
+		long count = 0;
+		for (Move m : b.actions(b.getPlayer())) count += perftCopy(b.makeMove(b, m), depth - 1);
+		return count;
+	}
+
+	/**
+	 * Counts the positions at a depth on a plain grid that shares no code with Board
+	 * @param grid the grid, grid[x][y] with y = 0 at the bottom
+	 * @param k the number of tiles to connect
+	 * @param player the player to move
+	 * @param depth the depth
+	 * @return the number of positions
+	 */
+	public static long perftReference(char[][] grid, int k, char player, int depth) {
+		if (depth == 0) return 1;
+		long count = 0;
+		boolean moved = false;
+		for (int x = 0; x < grid.length; x++) {
+			int y = 0;
+			while (y < grid[x].length && grid[x][y] != ' ') y++;
+			if (y == grid[x].length) continue;
+			moved = true;
+			grid[x][y] = player;
+			if (wins(grid, k, x, y)) count++;
+			else count += perftReference(grid, k, player == 'x' ? 'o' : 'x', depth - 1);
+			grid[x][y] = ' ';
+		}
+		return moved ? count : 1;
+	}
+
+	/**
+	 * Checks if the tile at a square of a plain grid is part of k in a row
+	 * @param grid the grid
+	 * @param k the number of tiles to connect
+	 * @param x the column of the tile
+	 * @param y the row of the tile
+	 * @return if the tile connects k
+	 */
+	public static boolean wins(char[][] grid, int k, int x, int y) {
+		int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+		for (int[] d : directions) {
+			int run = 1;
+			for (int sign = -1; sign <= 1; sign += 2) {
+				int i = x + sign * d[0];
+				int j = y + sign * d[1];
+				while (i >= 0 && i < grid.length && j >= 0 && j < grid[i].length &&
+						grid[i][j] == grid[x][y]) {
+					run++;
+					i += sign * d[0];
+					j += sign * d[1];
+				}
+			}
+			if (run >= k) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Copies a board onto a plain grid
+	 * @param b the board
+	 * @return the grid, grid[x][y] with y = 0 at the bottom
+	 */
+	public static char[][] grid(Board b) {
+		char[][] grid = new char[b.columns][b.rows];
+		for (int x = 0; x < b.columns; x++) {
+			for (int y = 0; y < b.rows; y++) grid[x][y] = b.squareAt(x, b.rows - 1 - y);
+		}
+		return grid;
+	}
+
+	/**
+	 * Checks that the three perft counts agree on every fixed position, printing the counts
+	 * and how fast the in-place board counted them
+	 * @return if every count agreed
+	 */
+	public static boolean checkPerft() {
+		boolean ok = true;
+		List<Board> boards = new ArrayList<Board>();
+		List<Integer> depths = new ArrayList<Integer>();
+		for (Board b : positions(7, 6, 4, 0, 6, 12, 18, 24)) {
+			boards.add(b);
+			depths.add(8);
+		}
+		for (Board b : positions(5, 3, 3, 0, 3)) {
+			boards.add(b);
+			depths.add(15);
+		}
+		for (int i = 0; i < boards.size(); i++) {
+			Board b = boards.get(i);
+			int depth = depths.get(i);
+			long start = System.nanoTime();
+			long fast = perft(b, depth);
+			long nanos = System.nanoTime() - start;
+			long copy = perftCopy(b, depth);
+			long reference = perftReference(grid(b), b.k, b.getPlayer(), depth);
+			boolean same = fast == reference && copy == reference;
+			ok &= same;
+			System.out.printf("%dx%dx%d after %2d moves, depth %2d: %12d %12d %12d %s %,d nodes/s%n",
+					b.columns, b.rows, b.k, b.moveCount, depth, fast, copy, reference,
+					same ? "ok" : "MISMATCH", (long) (fast * 1e9 / nanos));
+		}
+		return ok;
+	}
+
+	/**
+	 * Checks if a benchmark was asked for
+	 * @param name the name of the benchmark
+	 * @param filters the filters, or none for every benchmark
+	 * @return if the benchmark should run
+	 */
+	public static boolean selected(String name, String[] filters) {
+		if (filters.length == 0) return true;
+		for (String f : filters) {
+			if (name.contains(f)) return true;
+		}
+		return false;
+	}
+
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("perft")) {
+			if (!checkPerft()) System.exit(1);
+			return;
+		}
+		Board[] boards = positions(7, 6, 4, 0, 4, 8, 12, 16, 20, 24, 28);
+		int n = boards.length;
+		Board[] late = positions(7, 6, 4, 18, 20, 22, 24);
+		Board[] small = positions(5, 3, 3, 0, 2, 4);
+		Board[] tiny = positions(5, 3, 3, 5, 7);
+		List<String> names = new ArrayList<String>();
+		List<Integer> counts = new ArrayList<Integer>();
+		List<LongSupplier> ops = new ArrayList<LongSupplier>();
+
+		names.add("Board.actions");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.actions(b.getPlayer()).size();
+			return sum;
+		});
+		names.add("Board.generateMoves");
+		counts.add(n);
+		int[] buffer = new int[7];
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.generateMoves(buffer);
+			return sum;
+		});
+		names.add("Board.makeMove");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.makeMove(b, b.actions(b.getPlayer()).getFirst()).hash;
+			return sum;
+		});
+		names.add("Board.play+undo");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) {
+				b.play(b.order[0]);
+				sum += b.hash;
+				b.undo();
+			}
+			return sum;
+		});
+		names.add("Board.gameOver");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) if (b.gameOver()) sum++;
+			return sum;
+		});
+		names.add("Board.evaluate");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.evaluate();
+			return sum;
+		});
+		names.add("Board.numberOfConnectKs");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.numberOfConnectKs(b, 'x') - b.numberOfConnectKs(b, 'o');
+			return sum;
+		});
+		Search search = new Search(new TranspositionTable(16));
+		names.add("Search.random");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += search.random(b).getX();
+			return sum;
+		});
+		names.add("Search.minimax 5x3x3");
+		counts.add(tiny.length);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : tiny) sum += search.minimax(b).getX();
+			return sum;
+		});
+		names.add("Search.abMinimax 5x3x3");
+		counts.add(small.length);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : small) {
+				search.table.clear();
+				sum += search.abMinimax(b).getX();
+			}
+			return sum;
+		});
+		for (int depth : new int[] {4, 6, 8}) {
+			names.add("Search.hMinimax depth " + depth);
+			counts.add(n);
+			ops.add(() -> {
+				long sum = 0;
+				for (Board b : boards) {
+					search.table.clear();
+					sum += search.hMinimax(b, depth).getX();
+				}
+				return sum;
+			});
+		}
+		names.add("Search.solve");
+		counts.add(late.length);
+		ops.add(() -> {
+			long sum = 0;
+			Solver solver = new Solver(16);
+			for (Board b : late) sum += solver.solve(b);
+			return sum;
+		});
+		MonteCarloSearch monteCarlo = new MonteCarloSearch(1);
+		monteCarlo.setPlayouts(1000);
+		names.add("MonteCarloSearch 1000 playouts");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += monteCarlo.search(b).getX();
+			return sum;
+		});
+
+		for (int i = 0; i < names.size(); i++) {
+			if (selected(names.get(i), args)) measure(names.get(i), counts.get(i), ops.get(i));
+		}
+		monteCarlo.shutdown();
+	}
+}
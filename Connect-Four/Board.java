@@ -1,34 +1,152 @@
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Random;
 
 public class Board {
-
+	
 	protected int rows;
 	protected int columns;
 	protected int k;
-	protected char[][] board;
+	protected long xBits;
+	protected long oBits;
+	protected long mask;
+	protected long full;
+	protected long hash;
+	protected int[] height;
+	protected int[] order;
+	protected int[] moves;
+	protected int moveCount;
+	protected int[][] cellWindows;
+	protected int windows;
+	protected int[] weights;
+	protected int[][] windowCounts;
+	protected int[] threats = new int[2];
+	protected int[] open = new int[2];
 	protected char currentPlayer;
 	protected boolean connectedX = false;
 	protected boolean connectedO = false;
+	protected static final long[][] ZOBRIST = zobristKeys();
+	protected static final long SIDE = ZOBRIST[2][0];
 	
+	/**
+	 * Creates a board with a given number of columns, rows, and tiles to connect. Each
+	 * column is stored as rows + 1 bits of a long, bottom square first, with the extra bit
+	 * left empty so that shifted stones never wrap from one column into the next
+	 * @param c the number of columns
+	 * @param r the number of rows
+	 * @param k the given number of tiles to connect
+	 */
 	public Board(int c, int r, int k) {
 		columns = c;
 		rows = r;
 		this.k = k;
+		if (columns * (rows + 1) > 64) {
+			throw new IllegalArgumentException("A " + columns + "x" + rows + " board does not fit in a bitboard");
+		}
+		for (int i = 0; i < columns; i++) full |= columnMask(i);
+		moves = new int[rows * columns + 1];
+		height = new int[columns];
+		order = new int[columns];
+		for (int i = 0; i < columns; i++) {
+			if (i % 2 == 0) order[i] = columns / 2 + (i + 1) / 2;
+			else order[i] = columns / 2 - (i + 1) / 2;
+		}
+		findWindows();
+		weights = new int[k + 1];
+		for (int i = 0; i <= k; i++) weights[i] = 1 << i;
 	}
-
+	
 	/**
-	 * Creates a new board with a specific number of rows and columns
+	 * Finds every window of k squares in a row that a player could still connect, and lists
+	 * the windows each square belongs to
 	 */
-	public void newBoard() {
-		board = new char[rows][columns];
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < columns; j++) {
-				board[i][j] = ' ';
+	public final void findWindows() {
+		int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+		int[] sizes = new int[64];
+		int[][] cells = new int[columns * rows * 4][];
+		for (int x = 0; x < columns; x++) {
+			for (int y = 0; y < rows; y++) {
+				for (int[] d : directions) {
+					int endX = x + d[0] * (k - 1);
+					int endY = y + d[1] * (k - 1);
+					if (endX < 0 || endX >= columns || endY < 0 || endY >= rows) continue;
+					int[] window = new int[k];
+					for (int i = 0; i < k; i++) {
+						window[i] = Long.numberOfTrailingZeros(bit(x + d[0] * i, y + d[1] * i));
+						sizes[window[i]]++;
+					}
+					cells[windows++] = window;
+				}
 			}
 		}
+		cellWindows = new int[64][];
+		for (int i = 0; i < 64; i++) cellWindows[i] = new int[sizes[i]];
+		int[] filled = new int[64];
+		for (int w = 0; w < windows; w++) {
+			for (int square : cells[w]) cellWindows[square][filled[square]++] = w;
+		}
+		windowCounts = new int[2][windows];
+	}
+	
+	/**
+	 * Sets how much a window counts towards a player's threats for each number of the
+	 * player's tiles in it. A window with any of the opponent's tiles counts for nothing
+	 * @param w the weights, indexed from 0 to k tiles
+	 */
+	public void setWeights(int[] w) {
+		weights = w.clone();
+		recountThreats();
+	}
+	
+	/**
+	 * Recomputes the running threat totals from the window counts
+	 */
+	public void recountThreats() {
+		for (int p = 0; p < 2; p++) {
+			int[] mine = windowCounts[p];
+			int[] theirs = windowCounts[1 - p];
+			threats[p] = 0;
+			open[p] = 0;
+			for (int w = 0; w < windows; w++) {
+				if (theirs[w] != 0) continue;
+				threats[p] += weights[mine[w]];
+				open[p]++;
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new board with a specific number of rows and columns
+	 */
+	public void newBoard() {
+		xBits = 0;
+		oBits = 0;
+		mask = 0;
+		hash = 0;
+		moveCount = 0;
+		Arrays.fill(height, 0);
+		Arrays.fill(windowCounts[0], 0);
+		Arrays.fill(windowCounts[1], 0);
+		recountThreats();
+		connectedX = false;
+		connectedO = false;
 		currentPlayer = 'x';
 	}
 	
+	/**
+	 * Creates the random keys XORed into the hash of a board, one per player per bit, plus
+	 * one for the player to move. The seed is fixed so hashes are the same on every run
+	 * @return the keys
+	 */
+	public static long[][] zobristKeys() {
+		Random rand = new Random(242);
+		long[][] keys = new long[3][64];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 64; j++) keys[i][j] = rand.nextLong();
+		}
+		return keys;
+	}
+	
 	/**
 	 * Gets the current player
 	 * @return the current player
@@ -47,73 +165,112 @@ public class Board {
 	}
 	
 	/**
-	 * Moves to the end of a row, column, or diagonal after a player moves, and goes through
-	 * the row/column/diagonal, checking if it has a given number of tiles from a player that
-	 * are connected
-	 * @param b the board
-	 * @param m the move
-	 * @param directionX the x direction being checked
-	 * @param directionY the y direction being checked
-	 * @param k the given number of tiles to connect
-	 * @return if the player has connected the correct number of tiles
+	 * Gets the bit of a square
+	 * @param x the x coordinate
+	 * @param y the y coordinate, with 0 as the top row
+	 * @return the bit of the square
 	 */
-	public boolean testDirection(char[][] b, Move m, int directionX, int directionY) {
-		int x = m.getX();
-		int y = m.getY();
-		char player = m.getPlayer();
-		int count = 0;
-		
-		while (x > -1 && y > -1 && y < rows) {
-			x += directionX;
-			y += directionY;
-		}
-		x -= directionX;
-		y -= directionY;
-		
-		while (!(x >= columns || y >= rows || x < 0 || y < 0)) {
-			if (b[y][x] == player) {
-				count++;
-				if (count == k) return true;
-			}
-			else count = 0;
-			x -= directionX;
-			y -= directionY;
+	public final long bit(int x, int y) {
+		return 1L << (x * (rows + 1) + rows - 1 - y);
+	}
+	
+	/**
+	 * Gets the bits of every square in a column
+	 * @param x the column
+	 * @return the bits of the column
+	 */
+	public final long columnMask(int x) {
+		return ((1L << rows) - 1) << (x * (rows + 1));
+	}
+	
+	/**
+	 * Checks if a column still has room for a tile
+	 * @param x the column
+	 * @return if a tile can be dropped in the column
+	 */
+	public boolean canPlay(int x) {
+		return height[x] < rows;
+	}
+	
+	/**
+	 * Gets the row a tile dropped in a column lands on
+	 * @param x the column
+	 * @return the row the tile lands on
+	 */
+	public int landingRow(int x) {
+		return rows - 1 - height[x];
+	}
+	
+	/**
+	 * Checks if a set of tiles has the given number of tiles connected in any direction
+	 * @param stones the tiles of one player
+	 * @return if the tiles are connected
+	 */
+	public boolean connected(long stones) {
+		return aligned(stones, 1) || aligned(stones, rows) || aligned(stones, rows + 1) ||
+				aligned(stones, rows + 2);
+	}
+	
+	/**
+	 * Checks if a set of tiles has the given number of tiles in a row along one direction.
+	 * A shift of 1 is vertical, rows + 1 is horizontal, and rows and rows + 2 are the
+	 * two diagonals. Each step doubles the length of the runs being tracked, and the last
+	 * step overlaps two runs to reach exactly k, so any k takes about log2(k) shifts
+	 * @param stones the tiles of one player
+	 * @param shift the distance between neighboring bits in the direction
+	 * @return if the tiles are connected in the direction
+	 */
+	public boolean aligned(long stones, int shift) {
+		long run = stones;
+		int length = 1;
+		while (length * 2 <= k) {
+			run &= run >>> (length * shift);
+			length *= 2;
 		}
-		
-		return false;
+		if (length < k) run &= run >>> ((k - length) * shift);
+		return run != 0;
 	}
 	
 	/**
 	 * Checks to see if a move is valid - an empty square at the bottom of the board
-	 * @param b the board
 	 * @param m the move
 	 * @return if it is a valid move
 	 */
-	public boolean validMove(char[][] b, Move m) {
+	public boolean validMove(Move m) {
 		int x = m.getX();
 		int y = m.getY();
-		if (!emptySquare(b, x, y)) return false;
-		for (int i = rows - 1; i > y; i--) {
-			if (emptySquare(b, x, i)) return false;
+		if (x < 0 || x >= columns || y < 0 || y >= rows) return false;
+		return canPlay(x) && landingRow(x) == y;
+	}
+	
+	/**
+	 * Writes the columns that can still be played into a buffer, from the center column
+	 * outwards. The buffer needs room for one entry per column and can be reused between
+	 * calls. When no column has room the count is 0, and the player has to skip
+	 * @param buffer the buffer the columns are written to
+	 * @return the number of columns written
+	 */
+	public int generateMoves(int[] buffer) {
+		int count = 0;
+		for (int i = 0; i < columns; i++) {
+			if (height[order[i]] < rows) buffer[count++] = order[i];
 		}
-		return true;
+		return count;
 	}
 	
 	/**
-	 * Creates a linked list of possible moves on a board for a given player
-	 * @param b the board
+	 * Creates a linked list of possible moves on the board for a given player
 	 * @param p the player
 	 * @return the linked list of possible moves
 	 */
-	public LinkedList<Move> actions(char[][] b, char p) {
+	public LinkedList<Move> actions(char p) {
 		LinkedList<Move> actions = new LinkedList<Move>();
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < columns; j++) {
-				Move m = new Move(j, i, p);
-				if (validMove(b, m)) actions.add(m);
-			}
+		int[] buffer = new int[columns];
+		int count = generateMoves(buffer);
+		for (int j = 0; j < count; j++) {
+			actions.add(new Move(buffer[j], landingRow(buffer[j]), p));
 		}
-		if (actions.isEmpty()) {
+		if (count == 0) {
 			Move m = new Move(p);
 			actions.add(m);
 		}
@@ -121,83 +278,96 @@ public class Board {
 	}
 	
 	/**
-	 * Checks a direction to see if there is a potential connect k on a board for a given move
+	 * Gets how many windows of k squares a player could still connect on a board - the
+	 * windows with none of the opponent's tiles. The count is kept up to date by every move
 	 * @param b the board
-	 * @param m the move
-	 * @param directionX the x direction being checked
-	 * @param directionY the y direction being checked
-	 * @return 1 if there is a potential connect k, 0 if not
+	 * @param player the player
+	 * @return the number of potential connect k's
 	 */
-	public int countHeuristic(char[][] b, Move m, int directionX, int directionY) {
-		int x = m.getX();
-		int y = m.getY();
-		char player = m.getPlayer();
-		int count = 0;
-		
-		while (x > -1 && y > -1 && y < rows) {
-			x += directionX;
-			y += directionY;
-		}
-		x -= directionX;
-		y -= directionY;
-		
-		while (!(x >= columns || y >= rows || x < 0 || y < 0)) {
-			if (b[y][x] == player || b[y][x] == ' ') {
-				count++;
-				if (count == k) return 1;
-			}
-			else count = 0;
-			x -= directionX;
-			y -= directionY;
-		}
-		
-		return 0;
+	public int numberOfConnectKs(Board b, char player) {
+		if (player == 'x') return b.open[0];
+		else return b.open[1];
 	}
 	
 	/**
-	 * Checks every square to see how many potential connect k's there are on a board for a
-	 * given player
-	 * @param b the board
+	 * Gets the weighted threats of a player - the weight of each window the player could
+	 * still connect, by the number of the player's tiles already in it
 	 * @param player the player
-	 * @return the number of potential connect k's
+	 * @return the weighted threats
 	 */
-	public int numberOfConnectKs(Board b, char player) {
-		int count = 0;
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < columns; j++) {
-				Move m = new Move(j, i, player);
-				count += countHeuristic(b.board, m, 0, -1) + countHeuristic(b.board, m, -1, -1) +
-						countHeuristic(b.board, m, -1, 0) + countHeuristic(b.board, m, -1, 1);
-			}
-		}
-		return count;
+	public int threats(char player) {
+		if (player == 'x') return threats[0];
+		else return threats[1];
 	}
 	
 	/**
-	 * Checks if a square on a board is empty
-	 * @param b the board
+	 * Scores the board for the heuristic search from x's point of view, as x's weighted
+	 * threats minus o's. Both totals are kept by play and undo, so this is two reads
+	 * @return the score
+	 */
+	public int evaluate() {
+		return threats[0] - threats[1];
+	}
+	
+	/**
+	 * Gets the contents of a square on the board
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return 'x', 'o', or ' ' if the square is empty
+	 */
+	public char squareAt(int x, int y) {
+		long square = bit(x, y);
+		if ((xBits & square) != 0) return 'x';
+		else if ((oBits & square) != 0) return 'o';
+		else return ' ';
+	}
+	
+	/**
+	 * Checks if a square on the board is empty
 	 * @param x the x coordinate
 	 * @param y the y coordinate
 	 * @return if the square is empty
 	 */
-	public boolean emptySquare(char[][] b, int x, int y) {
-		if (b[y][x] == ' ') return true;
-		else return false;
+	public boolean emptySquare(int x, int y) {
+		return (mask & bit(x, y)) == 0;
 	}
 	
 	/**
-	 * Copies the contents of a board to a new board
-	 * @param oldBoard the board being copied
+	 * Creates a copy of a board. The windows, the column order and the weights never change
+	 * once a board is made, so they are shared with the copy rather than found again, and
+	 * only the state that moves change is copied
+	 * @param b the board to copy
+	 */
+	protected Board(Board b) {
+		columns = b.columns;
+		rows = b.rows;
+		k = b.k;
+		full = b.full;
+		order = b.order;
+		cellWindows = b.cellWindows;
+		windows = b.windows;
+		weights = b.weights;
+		xBits = b.xBits;
+		oBits = b.oBits;
+		mask = b.mask;
+		hash = b.hash;
+		connectedX = b.connectedX;
+		connectedO = b.connectedO;
+		currentPlayer = b.currentPlayer;
+		moveCount = b.moveCount;
+		moves = b.moves.clone();
+		height = b.height.clone();
+		windowCounts = new int[][] {b.windowCounts[0].clone(), b.windowCounts[1].clone()};
+		System.arraycopy(b.threats, 0, threats, 0, 2);
+		System.arraycopy(b.open, 0, open, 0, 2);
+	}
+	
+	/**
+	 * Copies the contents of the board, including its move history, to a new board
 	 * @return the new board
 	 */
-	public char[][] copyBoard(Board oldBoard) {
-		char[][] newBoard = new char[rows][columns];
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < columns; j++) {
-				newBoard[i][j] = oldBoard.board[i][j];
-			}
-		}
-		return newBoard;
+	public Board copyBoard() {
+		return new Board(this);
 	}
 	
 	/**
@@ -210,27 +380,131 @@ public class Board {
 		int x = m.getX();
 		int y = m.getY();
 		char player = m.getPlayer();
-		Board newBoard = new Board(columns, rows, k);
-		newBoard.board = copyBoard(oldBoard);
-		newBoard.board[y][x] = player;
-		newBoard.connectK(newBoard.board, m);
+		Board newBoard = oldBoard.copyBoard();
+		newBoard.hash ^= SIDE;
+		if (x >= 0) {
+			long square = newBoard.bit(x, y);
+			newBoard.mask |= square;
+			newBoard.hash ^= ZOBRIST[player == 'x' ? 0 : 1][Long.numberOfTrailingZeros(square)];
+			if (player == 'x') newBoard.xBits |= square;
+			else newBoard.oBits |= square;
+			newBoard.addThreats(player == 'x' ? 0 : 1, Long.numberOfTrailingZeros(square));
+			newBoard.height[x]++;
+			newBoard.connectK(m);
+		}
+		newBoard.moves[newBoard.moveCount++] = x;
 		newBoard.currentPlayer = oldBoard.getOpponent();
 		return newBoard;
 	}
 	
 	/**
-	 * Checks if a player has connected a given number of tiles on a board in any direction
-	 * with a move
-	 * @param b the board
+	 * Drops a tile for the current player in a column of this board, then switches players.
+	 * Nothing is allocated, and undo takes the tile back out
+	 * @param x the column
+	 */
+	public void play(int x) {
+		long square = 1L << (x * (rows + 1) + height[x]++);
+		mask |= square;
+		if (currentPlayer == 'x') {
+			xBits |= square;
+			hash ^= ZOBRIST[0][Long.numberOfTrailingZeros(square)];
+			addThreats(0, Long.numberOfTrailingZeros(square));
+			if (connected(xBits)) connectedX = true;
+		}
+		else {
+			oBits |= square;
+			hash ^= ZOBRIST[1][Long.numberOfTrailingZeros(square)];
+			addThreats(1, Long.numberOfTrailingZeros(square));
+			if (connected(oBits)) connectedO = true;
+		}
+		hash ^= SIDE;
+		moves[moveCount++] = x;
+		currentPlayer = getOpponent();
+	}
+	
+	/**
+	 * Plays a move on this board, then switches players. A skip move only switches players
 	 * @param m the move
-	 * @param k the given number of tiles to connect
 	 */
-	public void connectK(char[][] b, Move m) {
-		if (testDirection(b, m, 0, -1) || testDirection(b, m, -1, -1) ||
-				testDirection(b, m, -1, 0) || testDirection(b, m, -1, 1)) {
-			if (m.getPlayer() == 'x') connectedX = true;
-			else connectedO = true;
+	public void play(Move m) {
+		if (m.getX() >= 0) play(m.getX());
+		else {
+			hash ^= SIDE;
+			moves[moveCount++] = -1;
+			currentPlayer = getOpponent();
+		}
+	}
+	
+	/**
+	 * Updates the windows through a square when a player puts a tile on it. The player's
+	 * open windows move up one weight, and the opponent's stop counting
+	 * @param p 0 for x or 1 for o
+	 * @param square the bit index of the square
+	 */
+	public void addThreats(int p, int square) {
+		int[] mine = windowCounts[p];
+		int[] theirs = windowCounts[1 - p];
+		for (int w : cellWindows[square]) {
+			if (theirs[w] == 0) threats[p] += weights[mine[w] + 1] - weights[mine[w]];
+			if (mine[w] == 0) {
+				threats[1 - p] -= weights[theirs[w]];
+				open[1 - p]--;
+			}
+			mine[w]++;
+		}
+	}
+	
+	/**
+	 * Updates the windows through a square when a player's tile is taken off it, undoing
+	 * addThreats
+	 * @param p 0 for x or 1 for o
+	 * @param square the bit index of the square
+	 */
+	public void removeThreats(int p, int square) {
+		int[] mine = windowCounts[p];
+		int[] theirs = windowCounts[1 - p];
+		for (int w : cellWindows[square]) {
+			mine[w]--;
+			if (mine[w] == 0) {
+				threats[1 - p] += weights[theirs[w]];
+				open[1 - p]++;
+			}
+			if (theirs[w] == 0) threats[p] -= weights[mine[w] + 1] - weights[mine[w]];
+		}
+	}
+	
+	/**
+	 * Takes back the last move played on this board
+	 */
+	public void undo() {
+		int x = moves[--moveCount];
+		if (x >= 0) {
+			long square = 1L << (x * (rows + 1) + --height[x]);
+			mask ^= square;
+			if ((xBits & square) != 0) {
+				xBits ^= square;
+				hash ^= ZOBRIST[0][Long.numberOfTrailingZeros(square)];
+				removeThreats(0, Long.numberOfTrailingZeros(square));
+				connectedX = connectedX && connected(xBits);
+			}
+			else {
+				oBits ^= square;
+				hash ^= ZOBRIST[1][Long.numberOfTrailingZeros(square)];
+				removeThreats(1, Long.numberOfTrailingZeros(square));
+				connectedO = connectedO && connected(oBits);
+			}
 		}
+		hash ^= SIDE;
+		currentPlayer = getOpponent();
+	}
+	
+	/**
+	 * Checks if a player has connected a given number of tiles in any direction with a move
+	 * @param m the move
+	 */
+	public void connectK(Move m) {
+		if (m.getPlayer() == 'x' && connected(xBits)) connectedX = true;
+		else if (m.getPlayer() == 'o' && connected(oBits)) connectedO = true;
 	}
 	
 	/**
@@ -244,48 +518,39 @@ public class Board {
 		for (int i = 1; i <= rows; i++) {
 			System.out.print(i + "|");
 			for (int j = 0; j < columns; j++) {
-				System.out.print(board[i - 1][j] + "|");
+				System.out.print(squareAt(j, i - 1) + "|");
 			}
 			System.out.println();
 		}
 		System.out.println();
 		
-		if (currentPlayer == 'x' && !gameOver(board)) System.out.println("Next to play: RED/X\n");
-		else if (currentPlayer == 'o' && !gameOver(board)) System.out.println("Next to play: YELLOW/O\n");
+		if (currentPlayer == 'x' && !gameOver()) System.out.println("Next to play: RED/X\n");
+		else if (currentPlayer == 'o' && !gameOver()) System.out.println("Next to play: YELLOW/O\n");
 	}
 	
 	/**
-	 * Checks if a board is full
-	 * @param b the board
+	 * Checks if the board is full
 	 * @return if the board is full
 	 */
-	public boolean boardFull(char[][] b) {
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < columns; j++) {
-				if (emptySquare(b, j, i)) return false;
-			}
-		}
-		return true;
+	public boolean boardFull() {
+		return mask == full;
 	}
 	
 	/**
 	 * Checks if the game is over - a player has connected the given number of tiles, or the
 	 * board is full
-	 * @param b the board
 	 * @return if the game is over
 	 */
-	public boolean gameOver(char[][] b) {
-		if (connectedX || connectedO || boardFull(b)) return true;
+	public boolean gameOver() {
+		if (connectedX || connectedO || boardFull()) return true;
 		else return false;
 	}
 	
 	/**
 	 * Returns which player won, or if there was a tie
-	 * @param b the board
-	 * @param player the player
 	 * @return the player who won
 	 */
-	public int terminalValue(char[][] b) {
+	public int terminalValue() {
 		if (connectedX) return 1;
 		else if (connectedO) return -1;
 		else return 0;
@@ -293,12 +558,16 @@ public class Board {
 	
 	public static void main(String[] args) {
 		Board b = new Board(3, 3, 3);
-		char[][] board = {{'o', 'x', ' '}, {'x', 'x', 'x'}, {'x', 'o', 'o'}};
-		b.board = board;
+		b.newBoard();
+		char[][] board = {{'o', 'x', ' '}, {'x', 'x', 'o'}, {'x', 'o', 'o'}};
+		for (int i = 2; i >= 0; i--) {
+			for (int j = 0; j < 3; j++) {
+				if (board[i][j] != ' ') b = b.makeMove(b, new Move(j, i, board[i][j]));
+			}
+		}
 		Move m = new Move(2, 0, 'x');
 		b = b.makeMove(b, m);
-		b.connectK(b.board, m);
-		int v = b.terminalValue(board);
+		int v = b.terminalValue();
 		System.out.println(v);
 	}
 }
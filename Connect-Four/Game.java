@@ -2,13 +2,13 @@ import java.util.Scanner;
 
 public class Game {
 	
-	protected int rows, columns, opponent, depth, k;
+	protected int rows, columns, opponent, time, k;
 	protected char color;
 	public static Scanner scan;
 	
 	public Game() {
 		opponent = 0;
-		depth = 0;
+		time = 0;
 		color = ' ';
 	}
 	
@@ -19,7 +19,7 @@ public class Game {
 		System.out.println("Connect-Four by Elana Chen-Jones");
 		getBoardSize();
 		getOpponent();
-		if (opponent == 4) getDepth();
+		if (opponent == 4 || opponent == 6) getTime();
 		getColor();
 	}
 	
@@ -58,26 +58,28 @@ public class Game {
 	 * Gets an opponent type from the user
 	 */
 	public void getOpponent() {
-		while (opponent < 1 || opponent > 4) {
+		while (opponent < 1 || opponent > 6) {
 			System.out.println("Choose your opponent:");
 			System.out.println("1. An agent that plays randomly");
 			System.out.println("2. An agent that uses MINIMAX");
 			System.out.println("3. An agent that uses MINIMAX with alpha-beta pruning");
-			System.out.println("4. An agent that uses H-MINIMAX with a fixed depth cutoff");
+			System.out.println("4. An agent that uses H-MINIMAX with iterative deepening to a time limit");
+			System.out.println("5. An agent that solves the game exactly");
+			System.out.println("6. An agent that uses Monte Carlo tree search to a time limit");
 			System.out.print("Your choice? ");
 			opponent = scan.nextInt();
-			if (opponent < 1 || opponent > 4) System.out.println("Invalid option. Try again.");
+			if (opponent < 1 || opponent > 6) System.out.println("Invalid option. Try again.");
 		}
 	}
 	
 	/**
-	 * Gets a depth limit from the user
+	 * Gets a time limit per move from the user
 	 */
-	public void getDepth() {
-		while (depth < 1) {
-			System.out.print("Depth limit? ");
-			depth = scan.nextInt();
-			if (depth < 1) System.out.println("Invalid option. Try again.");
+	public void getTime() {
+		while (time < 1) {
+			System.out.print("Milliseconds per move? ");
+			time = scan.nextInt();
+			if (time < 1) System.out.println("Invalid option. Try again.");
 		}
 	}
 	
@@ -103,28 +105,49 @@ public class Game {
 	 */
 	public void playGame(Board b) {
 		Move m = new Move('x');
-		while (!b.gameOver(b.board)) {
+		Search s = new Search();
+		s.setThreads(Runtime.getRuntime().availableProcessors());
+		MonteCarloSearch mc = null;
+		if (opponent == 6) {
+			mc = new MonteCarloSearch(Runtime.getRuntime().availableProcessors());
+			mc.setTime(time);
+		}
+		while (!b.gameOver()) {
 			if (b.getPlayer() == color) {
 				do {
 					m = new Move(b.getPlayer(), scan);
-					if (!b.validMove(b.board, m)) System.out.println("Invalid move. Try again.");
-				} while (!b.validMove(b.board, m));
+					if (!b.validMove(m)) System.out.println("Invalid move. Try again.");
+				} while (!b.validMove(m));
 			}
 			else {
-				Search s = new Search();
 				if (opponent == 1) m = s.random(b);
 				else if (opponent == 2) {
 					System.out.println("go to minimax");
 					m = s.minimax(b);
 				}
 				else if (opponent == 3) m = s.abMinimax(b);
-				else m = s.hMinimax(b, depth);
+				else if (opponent == 4) m = s.timedHMinimax(b, time);
+				else if (opponent == 6) {
+					m = mc.search(b);
+					System.out.println("Playouts: " + mc.getPlayouts() + ", " +
+							mc.playoutsPerSecond() + " playouts/s");
+				}
+				else {
+					m = s.solve(b);
+					Solver solver = s.getSolver();
+					System.out.println("Solved: " + solver.getNodes() + " positions, " +
+							solver.nodesPerSecond() + " positions/s");
+					solver.resetStats();
+				}
+			}
+			if (SearchStats.ENABLED && b.getPlayer() != color && opponent >= 2 && opponent <= 4) {
+				System.out.println(s.getStats().summary());
 			}
-			b = b.makeMove(b, m);
+			b.play(m);
 			b.printBoard();
 		}
 		System.out.println("\nGame over");
-		int result = b.terminalValue(b.board);
+		int result = b.terminalValue();
 		if (result == 1) System.out.println("Winner: RED");
 		else if (result == -1) System.out.println("Winner: YELLOW");
 		else System.out.println("Winner: TIE");
@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo tree search with UCT. Every iteration walks down the tree to the child with the
+ * best upper confidence bound, adds one new node, plays random moves to the end of the game,
+ * and counts the result in every node it passed. Playouts run on a compact copy of the board -
+ * two bitboards and the column heights - so nothing is allocated but new tree nodes. Each
+ * thread grows its own tree from the same root and the root's visit counts are added up at
+ * the end, and each tree is kept for the next move if the new position is still in it.
+ */
+public class MonteCarloSearch {
+
+	public static final int NONE = -2;
+	public static final int DRAW = -1;
+	protected ForkJoinPool pool;
+	protected Worker[] workers;
+	protected int playouts;
+	protected long millis;
+	protected double exploration;
+	protected long lastPlayouts;
+	protected long lastNanos;
+
+	/**
+	 * Creates a search with one tree per thread and a budget of 10000 playouts per move. A
+	 * search with one thread runs on the calling thread and makes no pool, so a game on a
+	 * virtual thread stays on it
+	 * @param threads the number of threads
+	 */
+	public MonteCarloSearch(int threads) {
+		if (threads > 1) pool = new ForkJoinPool(threads);
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) workers[i] = new Worker(0x9E3779B97F4A7C15L * (i + 1));
+		playouts = 10000;
+		exploration = Math.sqrt(2);
+	}
+
+	/**
+	 * Sets the number of playouts per move, shared out between the threads
+	 * @param n the number of playouts
+	 */
+	public void setPlayouts(int n) {
+		playouts = n;
+		millis = 0;
+	}
+
+	/**
+	 * Sets the time per move instead of a number of playouts
+	 * @param millis the time limit in milliseconds
+	 */
+	public void setTime(long millis) {
+		this.millis = millis;
+		playouts = 0;
+	}
+
+	/**
+	 * Sets the weight of exploring moves with few visits against playing moves that have won
+	 * @param c the exploration constant
+	 */
+	public void setExploration(double c) {
+		exploration = c;
+	}
+
+	/**
+	 * Gets the number of threads searching
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return workers.length;
+	}
+
+	/**
+	 * Shuts down the threads
+	 */
+	public void shutdown() {
+		if (pool != null) pool.shutdown();
+	}
+
+	/**
+	 * Finds a move by growing every thread's tree until the budget runs out, then playing the
+	 * move visited most across all the trees. Ties go to the column nearest the center
+	 * @param b the board, which is not changed
+	 * @return the move
+	 */
+	public Move search(Board b) {
+		long start = System.nanoTime();
+		long deadline = millis > 0 ? start + millis * 1000000 : Long.MAX_VALUE;
+		long budget = playouts > 0 ? (playouts + workers.length - 1) / workers.length : Long.MAX_VALUE;
+		long total = 0;
+		if (pool == null) {
+			workers[0].setRoot(b);
+			total = workers[0].run(budget, deadline);
+		}
+		else {
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for (Worker w : workers) {
+				w.setRoot(b);
+				tasks.add(() -> w.run(budget, deadline));
+			}
+			try {
+				for (Future<Long> f : pool.invokeAll(tasks)) total += f.get();
+			}
+			catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		lastPlayouts = total;
+		lastNanos = System.nanoTime() - start;
+
+		long[] visits = new long[b.columns];
+		for (Worker w : workers) {
+			Node[] children = w.root.children;
+			for (int i = 0; i < w.root.expanded; i++) visits[children[i].move] += children[i].visits;
+		}
+		int best = -1;
+		for (int i = 0; i < b.columns; i++) {
+			int c = b.order[i];
+			if (b.canPlay(c) && (best < 0 || visits[c] > visits[best])) best = c;
+		}
+		if (best < 0) return new Move(b.getPlayer());
+		return new Move(best, b.landingRow(best), b.getPlayer());
+	}
+
+	/**
+	 * Gets the number of playouts in the last search
+	 * @return the number of playouts
+	 */
+	public long getPlayouts() {
+		return lastPlayouts;
+	}
+
+	/**
+	 * Gets the number of playouts per second in the last search, over all threads
+	 * @return the number of playouts per second
+	 */
+	public long playoutsPerSecond() {
+		if (lastNanos == 0) return 0;
+		return lastPlayouts * 1000000000L / lastNanos;
+	}
+
+	/**
+	 * A node of a tree. The wins are counted for the player who made the move into the node,
+	 * with a draw counting half
+	 */
+	protected static class Node {
+
+		protected int move;
+		protected int visits;
+		protected double wins;
+		protected Node[] children;
+		protected int expanded;
+
+		public Node(int move) {
+			this.move = move;
+		}
+	}
+
+	/**
+	 * One thread's tree and the compact board it plays on
+	 */
+	protected class Worker {
+
+		protected Board g;
+		protected Node root;
+		protected long[] rootStones = new long[2];
+		protected int[] rootHeight;
+		protected int rootPlayer;
+		protected long[] stones = new long[2];
+		protected long mask;
+		protected int[] height;
+		protected int player;
+		protected int[] buffer;
+		protected Node[] path;
+		protected long seed;
+
+		public Worker(long seed) {
+			this.seed = seed;
+		}
+
+		/**
+		 * Moves the root of the tree to a board. If the board is the old root or one or two
+		 * moves below it, that part of the tree is kept and the rest is dropped
+		 * @param b the board
+		 */
+		public void setRoot(Board b) {
+			if (g == null || g.columns != b.columns || g.rows != b.rows || g.k != b.k) {
+				g = new Board(b.columns, b.rows, b.k);
+				rootHeight = new int[b.columns];
+				height = new int[b.columns];
+				buffer = new int[b.columns];
+				path = new Node[b.columns * b.rows + 2];
+				root = null;
+			}
+			Node found = null;
+			if (root != null) {
+				reset();
+				if (matches(b)) found = root;
+				for (int i = 0; found == null && i < root.expanded; i++) {
+					Node child = root.children[i];
+					play(child.move);
+					if (matches(b)) found = child;
+					for (int j = 0; found == null && child.children != null && j < child.expanded; j++) {
+						play(child.children[j].move);
+						if (matches(b)) found = child.children[j];
+						undo(child.children[j].move);
+					}
+					undo(child.move);
+				}
+			}
+			root = found != null ? found : new Node(-1);
+			rootStones[0] = b.xBits;
+			rootStones[1] = b.oBits;
+			System.arraycopy(b.height, 0, rootHeight, 0, b.columns);
+			rootPlayer = b.getPlayer() == 'x' ? 0 : 1;
+		}
+
+		/**
+		 * Checks if the compact board holds the same position as a board
+		 * @param b the board
+		 * @return if the positions are the same
+		 */
+		public boolean matches(Board b) {
+			return stones[0] == b.xBits && stones[1] == b.oBits && (player == 0) == (b.getPlayer() == 'x');
+		}
+
+		/**
+		 * Grows the tree until the budget runs out
+		 * @param budget the number of playouts
+		 * @param deadline the System.nanoTime() to stop at, or Long.MAX_VALUE
+		 * @return the number of playouts made
+		 */
+		public long run(long budget, long deadline) {
+			long n = 0;
+			while (n < budget && ((n & 15) != 0 || System.nanoTime() < deadline)) {
+				iterate();
+				n++;
+			}
+			return n;
+		}
+
+		/**
+		 * Copies the root position onto the compact board
+		 */
+		public void reset() {
+			stones[0] = rootStones[0];
+			stones[1] = rootStones[1];
+			mask = stones[0] | stones[1];
+			System.arraycopy(rootHeight, 0, height, 0, height.length);
+			player = rootPlayer;
+		}
+
+		/**
+		 * Runs one selection, expansion, playout and update
+		 */
+		public void iterate() {
+			reset();
+			Node node = root;
+			path[0] = root;
+			int depth = 1;
+			int winner = NONE;
+			while (true) {
+				if (node.children == null) expand(node);
+				Node child;
+				boolean fresh = node.expanded < node.children.length;
+				if (fresh) child = node.children[node.expanded++];
+				else child = select(node);
+				path[depth++] = child;
+				winner = play(child.move);
+				if (winner != NONE) break;
+				if (fresh) {
+					winner = playout();
+					break;
+				}
+				node = child;
+			}
+			path[0].visits++;
+			for (int i = 1; i < depth; i++) {
+				Node n = path[i];
+				n.visits++;
+				if (winner == DRAW) n.wins += 0.5;
+				else if (winner == (rootPlayer ^ ((i - 1) & 1))) n.wins += 1;
+			}
+		}
+
+		/**
+		 * Adds every legal move of the compact board as a child of a node, center first
+		 * @param node the node
+		 */
+		public void expand(Node node) {
+			int n = 0;
+			for (int i = 0; i < g.columns; i++) {
+				if (height[g.order[i]] < g.rows) buffer[n++] = g.order[i];
+			}
+			node.children = new Node[n];
+			for (int i = 0; i < n; i++) node.children[i] = new Node(buffer[i]);
+		}
+
+		/**
+		 * Picks the child with the best upper confidence bound
+		 * @param node the node, with every child visited
+		 * @return the child
+		 */
+		public Node select(Node node) {
+			double log = Math.log(node.visits);
+			Node best = null;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (Node child : node.children) {
+				double value = child.wins / child.visits + exploration * Math.sqrt(log / child.visits);
+				if (value > bestValue) {
+					bestValue = value;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays random moves on the compact board until the game ends
+		 * @return the winner, or DRAW
+		 */
+		public int playout() {
+			while (true) {
+				int n = 0;
+				for (int i = 0; i < g.columns; i++) {
+					if (height[i] < g.rows) buffer[n++] = i;
+				}
+				if (n == 0) return DRAW;
+				int result = play(buffer[random(n)]);
+				if (result != NONE) return result;
+			}
+		}
+
+		/**
+		 * Drops a tile on the compact board and switches players
+		 * @param x the column
+		 * @return the player who moved if they connected k, DRAW if the board is full, or NONE
+		 */
+		public int play(int x) {
+			long square = 1L << (x * (g.rows + 1) + height[x]++);
+			stones[player] |= square;
+			mask |= square;
+			int mover = player;
+			player ^= 1;
+			if (g.connected(stones[mover])) return mover;
+			if (mask == g.full) return DRAW;
+			return NONE;
+		}
+
+		/**
+		 * Takes the top tile out of a column of the compact board and switches players back
+		 * @param x the column
+		 */
+		public void undo(int x) {
+			long square = 1L << (x * (g.rows + 1) + --height[x]);
+			player ^= 1;
+			stones[player] &= ~square;
+			mask &= ~square;
+		}
+
+		/**
+		 * Gets a random number with a xorshift generator
+		 * @param n the bound
+		 * @return a number from 0 to n - 1
+		 */
+		public int random(int n) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			return (int) ((seed >>> 33) * n >>> 31);
+		}
+	}
+}
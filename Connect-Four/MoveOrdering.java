@@ -0,0 +1,25 @@
+public interface MoveOrdering {
+	
+	/**
+	 * Sorts the moves of a board into the order they should be searched.
+	 * @param b the board, before any of the moves are played
+	 * @param moves the columns that can be played
+	 * @param n the number of columns in moves
+	 * @param hashMove the best move stored in the transposition table, or NO_MOVE
+	 */
+	public void order(Board b, int[] moves, int n, int hashMove);
+	
+	/**
+	 * Called when a move causes an alpha-beta cutoff.
+	 * @param b the board, before the move is played
+	 * @param move the column that caused the cutoff
+	 * @param depth the remaining depth of the search below the board
+	 */
+	public void cutoff(Board b, int move, int depth);
+	
+	/**
+	 * Called before each search from a new root.
+	 */
+	public void newSearch();
+
+}
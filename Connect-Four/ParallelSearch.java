@@ -0,0 +1,227 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Heuristic minimax with alpha-beta pruning spread over a fork/join pool with the
+ * Young Brothers Wait Concept: at every node with enough depth left, the first move is
+ * searched on its own to get a bound, and then the rest of the moves are searched in
+ * parallel with that bound. Nodes near the leaves are searched by a single-threaded
+ * Search on each worker thread, and every thread shares one transposition table.
+ */
+public class ParallelSearch {
+
+	protected ForkJoinPool pool;
+	protected TranspositionTable table;
+	protected ThreadLocal<Search> workers;
+	protected ConcurrentLinkedQueue<Search> searches = new ConcurrentLinkedQueue<Search>();
+	protected int splitDepth;
+	protected long deadline;
+	protected volatile boolean timeUp;
+
+	/**
+	 * Creates a parallel search
+	 * @param threads the number of threads
+	 * @param table the transposition table shared by every thread
+	 */
+	public ParallelSearch(int threads, TranspositionTable table) {
+		pool = new ForkJoinPool(threads);
+		this.table = table;
+		workers = ThreadLocal.withInitial(() -> {
+			Search worker = new Search(table);
+			searches.add(worker);
+			return worker;
+		});
+		splitDepth = 4;
+		deadline = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Gets the number of threads searching
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Searches every move of a board to a given depth. The moves are tried in a fixed order
+	 * and a move only replaces the best one if it is strictly better, so at a fixed depth
+	 * the same move comes back however the threads are scheduled
+	 * @param b the board, which is not changed
+	 * @param depth the depth
+	 * @param first the column to search first, or NO_MOVE
+	 * @param deadline the System.nanoTime() to stop at, or Long.MAX_VALUE
+	 * @return the column of the best move, or -1 if time ran out first
+	 */
+	public int searchRoot(Board b, int depth, int first, long deadline) {
+		this.deadline = deadline;
+		timeUp = false;
+		int move = pool.invoke(new RootTask(b.copyBoard(), depth, first));
+		if (timeUp) return -1;
+		return move;
+	}
+
+	/**
+	 * Adds the stats every worker thread counted since the last merge to a search's stats
+	 * @param into the stats to add to
+	 */
+	public void mergeStats(SearchStats into) {
+		for (Search worker : searches) into.merge(worker.stats);
+	}
+	
+	/**
+	 * Shuts down the threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Searches a board on the current thread's Search, below the split depth
+	 * @param b the board
+	 * @param alpha the alpha
+	 * @param beta the beta
+	 * @param count the count of how deep the search is
+	 * @param depth the depth
+	 * @return a utility value
+	 */
+	public int searchSerial(Board b, int alpha, int beta, int count, int depth) {
+		Search worker = workers.get();
+		worker.deadline = deadline;
+		worker.timeUp = false;
+		int value;
+		if (b.getPlayer() == 'x') value = worker.maxValueH(b, alpha, beta, count, depth);
+		else value = worker.minValueH(b, alpha, beta, count, depth);
+		if (worker.timeUp) timeUp = true;
+		return value;
+	}
+
+	/**
+	 * Searches the first move of the root on its own, then the rest in parallel against its
+	 * value, and picks the best
+	 */
+	@SuppressWarnings("serial")
+	protected class RootTask extends RecursiveTask<Integer> {
+
+		protected Board b;
+		protected int depth;
+		protected int first;
+
+		public RootTask(Board b, int depth, int first) {
+			this.b = b;
+			this.depth = depth;
+			this.first = first;
+		}
+
+		@Override
+		protected Integer compute() {
+			boolean max = b.getPlayer() == 'x';
+			int[] moves = new int[b.columns];
+			int n = b.generateMoves(moves);
+			if (n == 0) return -1;
+			for (int i = 1; i < n; i++) {
+				if (moves[i] == first) {
+					System.arraycopy(moves, 0, moves, 1, i);
+					moves[0] = first;
+					break;
+				}
+			}
+			b.play(moves[0]);
+			int best = new NodeTask(b, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, depth).compute();
+			b.undo();
+			int bestMove = moves[0];
+			int alpha = max ? best : Integer.MIN_VALUE;
+			int beta = max ? Integer.MAX_VALUE : best;
+			NodeTask[] tasks = new NodeTask[n];
+			for (int i = 1; i < n; i++) {
+				Board child = b.copyBoard();
+				child.play(moves[i]);
+				tasks[i] = new NodeTask(child, alpha, beta, 0, depth);
+				tasks[i].fork();
+			}
+			for (int i = 1; i < n; i++) {
+				int value = tasks[i].join();
+				if ((max && value > best) || (!max && value < best)) {
+					best = value;
+					bestMove = moves[i];
+				}
+			}
+			return bestMove;
+		}
+	}
+
+	/**
+	 * Searches one node, forking its younger brothers once the eldest has been searched
+	 */
+	@SuppressWarnings("serial")
+	protected class NodeTask extends RecursiveTask<Integer> {
+
+		protected Board b;
+		protected int alpha;
+		protected int beta;
+		protected int count;
+		protected int depth;
+
+		public NodeTask(Board b, int alpha, int beta, int count, int depth) {
+			this.b = b;
+			this.alpha = alpha;
+			this.beta = beta;
+			this.count = count;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (timeUp) return 0;
+			if (b.gameOver() || count >= depth || depth - count < splitDepth) {
+				return searchSerial(b, alpha, beta, count, depth);
+			}
+			Search worker = workers.get();
+			if (SearchStats.ENABLED) worker.stats.node();
+			long entry = table.probe(b.hash);
+			if (worker.cutoff(entry, depth - count, alpha, beta)) {
+				if (SearchStats.ENABLED) worker.stats.tableCutoff();
+				return TranspositionTable.value(entry);
+			}
+			boolean max = b.getPlayer() == 'x';
+			int[] moves = new int[b.columns];
+			int n = b.generateMoves(moves);
+			if (SearchStats.ENABLED) worker.stats.expand(n);
+			worker.ordering.order(b, moves, n, worker.hashMove(entry));
+			int originalAlpha = alpha;
+			int originalBeta = beta;
+
+			b.play(moves[0]);
+			int v = new NodeTask(b, alpha, beta, count + 1, depth).compute();
+			b.undo();
+			int move = moves[0];
+			if (timeUp) return 0;
+			if ((max && v >= beta) || (!max && v <= alpha)) {
+				if (SearchStats.ENABLED) worker.stats.cutoff(0);
+				worker.store(b, v, depth - count, originalAlpha, originalBeta, move);
+				return v;
+			}
+			if (max) alpha = Math.max(alpha, v);
+			else beta = Math.min(beta, v);
+
+			NodeTask[] tasks = new NodeTask[n];
+			for (int i = 1; i < n; i++) {
+				Board child = b.copyBoard();
+				child.play(moves[i]);
+				tasks[i] = new NodeTask(child, alpha, beta, count + 1, depth);
+				tasks[i].fork();
+			}
+			for (int i = 1; i < n; i++) {
+				int value = tasks[i].join();
+				if ((max && value > v) || (!max && value < v)) {
+					v = value;
+					move = moves[i];
+				}
+			}
+			if (timeUp) return 0;
+			worker.store(b, v, depth - count, originalAlpha, originalBeta, move);
+			return v;
+		}
+	}
+}
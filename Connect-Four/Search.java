@@ -1,10 +1,243 @@
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Random;
 
 public class Search {
 
+	public static final int END_OF_GAME = 0xFF;
+	public static final int WIN_SCORE = 1 << 20;
+	protected TranspositionTable table;
+	protected int[][] moveLists;
+	protected MoveOrdering ordering;
+	protected long[] cutoffs = new long[0];
+	protected long[] firstCutoffs = new long[0];
+	protected long deadline;
+	protected boolean timeUp;
+	protected long nodes;
+	protected ParallelSearch parallel;
+	protected Solver solver;
+	protected SearchStats stats = new SearchStats();
+	
 	public Search() {
-		
+		this(new TranspositionTable(18));
+	}
+	
+	/**
+	 * Creates a search that uses a given transposition table, which may be shared with
+	 * searches on other threads
+	 * @param table the transposition table
+	 */
+	public Search(TranspositionTable table) {
+		this.table = table;
+		ordering = new HistoryMoveOrdering();
+		deadline = Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Sets the number of threads h-minimax searches with. With more than one thread the
+	 * root is handed to a ParallelSearch sharing this search's transposition table
+	 * @param threads the number of threads
+	 */
+	public void setThreads(int threads) {
+		if (parallel != null) parallel.shutdown();
+		if (threads > 1) parallel = new ParallelSearch(threads, table);
+		else parallel = null;
+	}
+	
+	/**
+	 * Gets the number of threads h-minimax searches with
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		if (parallel == null) return 1;
+		return parallel.getThreads();
+	}
+	
+	/**
+	 * Sets the move ordering used by alpha-beta and h-minimax
+	 * @param o the move ordering
+	 */
+	public void setOrdering(MoveOrdering o) {
+		ordering = o;
+	}
+	
+	/**
+	 * Gets the number of nodes searched since the search was made or reset
+	 * @return the number of nodes
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * Resets the node count
+	 */
+	public void resetNodes() {
+		nodes = 0;
+	}
+	
+	/**
+	 * Gets the stats of the last move searched, which are only kept if SearchStats.ENABLED
+	 * @return the stats
+	 */
+	public SearchStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Counts a node and checks if a timed search has run past its deadline. The clock is
+	 * only read every 1024 nodes, and once time is up every node returns straight away
+	 * @return if the search has to stop
+	 */
+	public boolean outOfTime() {
+		if (SearchStats.ENABLED) stats.node();
+		if (!timeUp && (++nodes & 1023) == 0 && System.nanoTime() > deadline) timeUp = true;
+		return timeUp;
+	}
+	
+	/**
+	 * Checks if a table entry settles a position without searching it. Entries are only
+	 * used at the same remaining depth: a Connect-Four position is always reached at the
+	 * same ply, so this matches every transposition within a search, and a deeper result
+	 * would change the value of a fixed-depth search
+	 * @param entry the table entry, or 0
+	 * @param depth the remaining depth
+	 * @param alpha the alpha
+	 * @param beta the beta
+	 * @return if the entry's value can be returned
+	 */
+	public boolean cutoff(long entry, int depth, int alpha, int beta) {
+		if (entry == 0 || TranspositionTable.depth(entry) != depth) return false;
+		int value = TranspositionTable.value(entry);
+		int bound = TranspositionTable.bound(entry);
+		return bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && value >= beta) ||
+				(bound == TranspositionTable.UPPER && value <= alpha);
+	}
+	
+	/**
+	 * Stores a searched value in the table, with its bound type taken from the window it
+	 * was searched with
+	 * @param b the board
+	 * @param v the utility value
+	 * @param depth the remaining depth
+	 * @param alpha the alpha the board was searched with
+	 * @param beta the beta the board was searched with
+	 * @param move the column of the best move
+	 */
+	public void store(Board b, int v, int depth, int alpha, int beta, int move) {
+		int bound = TranspositionTable.EXACT;
+		if (v <= alpha) bound = TranspositionTable.UPPER;
+		else if (v >= beta) bound = TranspositionTable.LOWER;
+		table.store(b.hash, v, depth, bound, move);
+	}
+	
+	/**
+	 * Gets the best move stored for a board so it can be searched first
+	 * @param entry the table entry, or 0
+	 * @return the column of the best move, or NO_MOVE
+	 */
+	public int hashMove(long entry) {
+		if (entry == 0) return TranspositionTable.NO_MOVE;
+		return TranspositionTable.move(entry);
+	}
+	
+	/**
+	 * Generates the moves of a board into the buffer kept for its ply. The buffers are
+	 * only allocated again when a bigger board comes along
+	 * @param b the board
+	 * @return the number of moves in moveLists[b.moveCount]
+	 */
+	public int generate(Board b) {
+		if (moveLists == null || moveLists.length <= b.moveCount || moveLists[0].length < b.columns) {
+			moveLists = new int[b.rows * b.columns + 2][b.columns];
+		}
+		return b.generateMoves(moveLists[b.moveCount]);
+	}
+	
+	/**
+	 * Generates the moves of a board and sorts them with the move ordering
+	 * @param b the board
+	 * @param first the best move stored in the table, or NO_MOVE
+	 * @return the number of moves in moveLists[b.moveCount]
+	 */
+	public int orderMoves(Board b, int first) {
+		int n = generate(b);
+		ordering.order(b, moveLists[b.moveCount], n, first);
+		return n;
+	}
+	
+	/**
+	 * Tells the move ordering about a cutoff and counts whether it came from the first
+	 * move searched, which is how often a perfectly ordered search would cut off. The
+	 * counts are kept for every remaining depth up to the number of squares of the board,
+	 * and only if SearchStats.ENABLED
+	 * @param b the board, before the move is played
+	 * @param move the column that caused the cutoff
+	 * @param index the position of the move in the searched order
+	 * @param depth the remaining depth
+	 */
+	public void recordCutoff(Board b, int move, int index, int depth) {
+		ordering.cutoff(b, move, depth);
+		if (!SearchStats.ENABLED) return;
+		stats.cutoff(index);
+		if (cutoffs.length <= depth) {
+			cutoffs = Arrays.copyOf(cutoffs, b.rows * b.columns + 1);
+			firstCutoffs = Arrays.copyOf(firstCutoffs, b.rows * b.columns + 1);
+		}
+		cutoffs[depth]++;
+		if (index == 0) firstCutoffs[depth]++;
+	}
+	
+	/**
+	 * Gets how often the first move searched caused the cutoff at a remaining depth
+	 * @param depth the remaining depth
+	 * @return the fraction of cutoffs made by the first move, or 0 if there were none
+	 */
+	public double firstMoveCutoffRate(int depth) {
+		if (depth >= cutoffs.length || cutoffs[depth] == 0) return 0;
+		return (double) firstCutoffs[depth] / cutoffs[depth];
+	}
+	
+	/**
+	 * Prints the number of cutoffs and the first-move cutoff rate at each remaining depth
+	 */
+	public void printCutoffStats() {
+		for (int depth = 0; depth < cutoffs.length; depth++) {
+			if (cutoffs[depth] == 0) continue;
+			System.out.printf("depth %d: %d cutoffs, %.1f%% on the first move%n", depth, cutoffs[depth],
+					100 * firstMoveCutoffRate(depth));
+		}
+	}
+	
+	/**
+	 * Resets the cutoff counts
+	 */
+	public void clearCutoffStats() {
+		Arrays.fill(cutoffs, 0);
+		Arrays.fill(firstCutoffs, 0);
+	}
+	
+	/**
+	 * Turns the column chosen by a search into a move for the current player
+	 * @param b the board
+	 * @param x the column, or -1 if there was no move to make
+	 * @return the move
+	 */
+	public Move decision(Board b, int x) {
+		if (x < 0) return new Move(b.getPlayer());
+		return new Move(x, b.landingRow(x), b.getPlayer());
+	}
+	
+	/**
+	 * Ends the stats of a search and turns the column it chose into a move
+	 * @param search the name of the search
+	 * @param b the board
+	 * @param x the column, or -1 if there was no move to make
+	 * @return the move
+	 */
+	public Move finish(String search, Board b, int x) {
+		if (SearchStats.ENABLED) stats.end(search, x);
+		return decision(b, x);
 	}
 	
 	
@@ -16,7 +249,7 @@ public class Search {
 	 * @return the move
 	 */
 	public Move random(Board b) {
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+		LinkedList<Move> actions = b.actions(b.getPlayer());
 		Random rand = new Random();
 		Move m = actions.get(rand.nextInt(actions.size()));
 		return m;
@@ -30,12 +263,18 @@ public class Search {
 	 * @return a utility value
 	 */
 	public int maxValueMinimax(Board b) {
-		if (b.gameOver(b.board)) return b.terminalValue(b.board);
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
+		if (b.gameOver()) return b.terminalValue();
 		int v = Integer.MIN_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			v = Math.max(v, minValueMinimax(newBoard));
+		int n = generate(b);
+		if (SearchStats.ENABLED) stats.expand(n);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
+			v = Math.max(v, minValueMinimax(b));
+			b.undo();
 		}
 		return v;
 	}
@@ -47,12 +286,18 @@ public class Search {
 	 */
 	public int minValueMinimax(Board b) {
 		//b.printBoard();
-		if (b.gameOver(b.board)) return b.terminalValue(b.board);
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
+		if (b.gameOver()) return b.terminalValue();
 		int v = Integer.MAX_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			v = Math.min(v, maxValueMinimax(newBoard));
+		int n = generate(b);
+		if (SearchStats.ENABLED) stats.expand(n);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
+			v = Math.min(v, maxValueMinimax(b));
+			b.undo();
 		}
 		return v;
 	}
@@ -63,25 +308,30 @@ public class Search {
 	 * @return an action
 	 */
 	public Move minimax(Board b) {
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+		if (SearchStats.ENABLED) stats.begin();
+		char player = b.getPlayer();
 		int maxVal = Integer.MIN_VALUE;
 		int minVal = Integer.MAX_VALUE;
-		Move bestMove = null;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
+		int bestMove = -1;
+		int n = generate(b);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
 			int value;
-			if (b.getPlayer() == 'x') value = minValueMinimax(newBoard);
-			else value = maxValueMinimax(newBoard);
-			if (b.getPlayer() == 'x' && value > maxVal) {
+			if (player == 'x') value = minValueMinimax(b);
+			else value = maxValueMinimax(b);
+			b.undo();
+			if (player == 'x' && value > maxVal) {
 				maxVal = value;
-				bestMove = m;
+				bestMove = c;
 			}
-			else if (b.getPlayer() == 'o' && value < minVal) {
+			else if (player == 'o' && value < minVal) {
 				minVal = value;
-				bestMove = m;
+				bestMove = c;
 			}
 		}
-		return bestMove;
+		return finish("minimax", b, bestMove);
 	}
 	
 	// MINIMAX ALPHA-BETA PRUNING
@@ -94,15 +344,37 @@ public class Search {
 	 * @return a utility value
 	 */
 	public int maxValueAB(Board b, int alpha, int beta) {
-		if (b.gameOver(b.board)) return b.terminalValue(b.board);
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
+		if (b.gameOver()) return b.terminalValue();
+		long entry = table.probe(b.hash);
+		if (cutoff(entry, END_OF_GAME, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		int first = hashMove(entry);
+		int originalAlpha = alpha;
 		int v = Integer.MIN_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m); //HERE
-			v = Math.max(v, minValueAB(newBoard, alpha, beta));
-			if (v >= beta) return v;
+		int move = TranspositionTable.NO_MOVE;
+		int n = orderMoves(b, first);
+		if (SearchStats.ENABLED) stats.expand(n);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
+			int value = minValueAB(b, alpha, beta);
+			b.undo();
+			if (value > v) {
+				v = value;
+				move = c;
+			}
+			if (v >= beta) {
+				recordCutoff(b, c, i, b.rows * b.columns - b.moveCount);
+				break;
+			}
 			alpha = Math.max(alpha, v);
 		}
+		store(b, v, END_OF_GAME, originalAlpha, beta, move);
 		return v;
 	}
 	
@@ -114,15 +386,37 @@ public class Search {
 	 * @return a utility value
 	 */
 	public int minValueAB(Board b, int alpha, int beta) {
-		if (b.gameOver(b.board)) return b.terminalValue(b.board);
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
+		if (b.gameOver()) return b.terminalValue();
+		long entry = table.probe(b.hash);
+		if (cutoff(entry, END_OF_GAME, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		int first = hashMove(entry);
+		int originalBeta = beta;
 		int v = Integer.MAX_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m); //HERE
-			v = Math.min(v, maxValueAB(newBoard, alpha, beta));
-			if (v <= alpha) return v;
+		int move = TranspositionTable.NO_MOVE;
+		int n = orderMoves(b, first);
+		if (SearchStats.ENABLED) stats.expand(n);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
+			int value = maxValueAB(b, alpha, beta);
+			b.undo();
+			if (value < v) {
+				v = value;
+				move = c;
+			}
+			if (v <= alpha) {
+				recordCutoff(b, c, i, b.rows * b.columns - b.moveCount);
+				break;
+			}
 			beta = Math.min(beta, v);
 		}
+		store(b, v, END_OF_GAME, alpha, originalBeta, move);
 		return v;
 	}
 	
@@ -132,27 +426,33 @@ public class Search {
 	 * @return an action
 	 */
 	public Move abMinimax(Board b) {
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+		if (SearchStats.ENABLED) stats.begin();
+		ordering.newSearch();
+		char player = b.getPlayer();
 		int maxVal = Integer.MIN_VALUE;
 		int minVal = Integer.MAX_VALUE;
 		int alpha = Integer.MIN_VALUE;
 		int beta = Integer.MAX_VALUE;
-		Move bestMove = null;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
+		int bestMove = -1;
+		int n = generate(b);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
 			int value;
-			if (b.getPlayer() == 'x') value = minValueAB(newBoard, alpha, beta);
-			else value = maxValueAB(newBoard, alpha, beta);
-			if (b.getPlayer() == 'x' && value > maxVal) {
+			if (player == 'x') value = minValueAB(b, alpha, beta);
+			else value = maxValueAB(b, alpha, beta);
+			b.undo();
+			if (player == 'x' && value > maxVal) {
 				maxVal = value;
-				bestMove = m;
+				bestMove = c;
 			}
-			else if (b.getPlayer() == 'o' && value < minVal) {
+			else if (player == 'o' && value < minVal) {
 				minVal = value;
-				bestMove = m;
+				bestMove = c;
 			}
 		}
-		return bestMove;
+		return finish("abMinimax", b, bestMove);
 	}
 	
 	// HEURISTIC MINIMAX ALPHA-BETA PRUNING
@@ -168,16 +468,38 @@ public class Search {
 	 * @return a utility value
 	 */
 	public int maxValueH(Board b, int alpha, int beta, int count, int depth) {
-		if (b.gameOver(b.board)) return b.terminalValue(b.board);
+		if (outOfTime()) return 0;
+		if (b.gameOver()) return b.terminalValue() * WIN_SCORE;
+		if (count >= depth) return b.evaluate();
+		long entry = table.probe(b.hash);
+		if (cutoff(entry, depth - count, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		int first = hashMove(entry);
+		int originalAlpha = alpha;
 		int v = Integer.MIN_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
-		if (count >= depth) return b.numberOfConnectKs(b, b.getPlayer()) - b.numberOfConnectKs(b, b.getOpponent());
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			if (count < depth) v = Math.max(v, minValueH(newBoard, alpha, beta, count + 1, depth));
-			if (v >= beta) return b.numberOfConnectKs(b, b.getPlayer()) - b.numberOfConnectKs(b, b.getOpponent());;
+		int move = TranspositionTable.NO_MOVE;
+		int n = orderMoves(b, first);
+		if (SearchStats.ENABLED) stats.expand(n);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
+			int value = minValueH(b, alpha, beta, count + 1, depth);
+			b.undo();
+			if (timeUp) return 0;
+			if (value > v) {
+				v = value;
+				move = c;
+			}
+			if (v >= beta) {
+				recordCutoff(b, c, i, depth - count);
+				break;
+			}
 			alpha = Math.max(alpha, v);
 		}
+		store(b, v, depth - count, originalAlpha, beta, move);
 		return v;
 	}
 	
@@ -192,47 +514,151 @@ public class Search {
 	 * @return a utility value
 	 */
 	public int minValueH(Board b, int alpha, int beta, int count, int depth) {
-		if (b.gameOver(b.board)) return b.terminalValue(b.board);
+		if (outOfTime()) return 0;
+		if (b.gameOver()) return b.terminalValue() * WIN_SCORE;
+		if (count >= depth) return b.evaluate();
+		long entry = table.probe(b.hash);
+		if (cutoff(entry, depth - count, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		int first = hashMove(entry);
+		int originalBeta = beta;
 		int v = Integer.MAX_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
-		if (count >= depth) return b.numberOfConnectKs(b, b.getPlayer()) - b.numberOfConnectKs(b, b.getOpponent());
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			if (count < depth) v = Math.min(v, maxValueH(newBoard, alpha, beta, count + 1, depth));
-			if (v <= alpha) return b.numberOfConnectKs(b, b.getPlayer()) - b.numberOfConnectKs(b, b.getOpponent());;
+		int move = TranspositionTable.NO_MOVE;
+		int n = orderMoves(b, first);
+		if (SearchStats.ENABLED) stats.expand(n);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
+			int value = maxValueH(b, alpha, beta, count + 1, depth);
+			b.undo();
+			if (timeUp) return 0;
+			if (value < v) {
+				v = value;
+				move = c;
+			}
+			if (v <= alpha) {
+				recordCutoff(b, c, i, depth - count);
+				break;
+			}
 			beta = Math.min(beta, v);
 		}
+		store(b, v, depth - count, alpha, originalBeta, move);
 		return v;
 	}
 	
 	/**
-	 * The h-minimax function from the textbook's pseudocode
+	 * The h-minimax function from the textbook's pseudocode. The depth is cut to the
+	 * number of empty squares, since no game goes on longer
 	 * @param b the board
 	 * @param depth the depth
 	 * @return an action
 	 */
 	public Move hMinimax(Board b, int depth) {
-		LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+		if (SearchStats.ENABLED) stats.begin();
+		depth = Math.min(depth, b.rows * b.columns - b.moveCount);
+		ordering.newSearch();
+		int move;
+		if (parallel != null) {
+			move = parallel.searchRoot(b, depth, TranspositionTable.NO_MOVE, deadline);
+			if (SearchStats.ENABLED) parallel.mergeStats(stats);
+		}
+		else move = searchRootH(b, depth, TranspositionTable.NO_MOVE);
+		if (SearchStats.ENABLED) stats.iteration(depth);
+		return finish("hMinimax", b, move);
+	}
+	
+	/**
+	 * Searches every move of a board to a given depth with heuristic minimax
+	 * @param b the board
+	 * @param depth the depth
+	 * @param first the column to search first, or NO_MOVE
+	 * @return the column of the best move, or -1 if time ran out first
+	 */
+	public int searchRootH(Board b, int depth, int first) {
+		char player = b.getPlayer();
 		int maxVal = Integer.MIN_VALUE;
 		int minVal = Integer.MAX_VALUE;
 		int alpha = Integer.MIN_VALUE;
 		int beta = Integer.MAX_VALUE;
-		Move bestMove = null;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
+		int bestMove = -1;
+		int n = orderMoves(b, first);
+		int[] list = moveLists[b.moveCount];
+		for (int i = 0; i < n; i++) {
+			int c = list[i];
+			b.play(c);
 			int value;
 			int count = 0;
-			if (b.getPlayer() == 'x') value = minValueH(newBoard, alpha, beta, count, depth);
-			else value = maxValueH(newBoard, alpha, beta, count, depth);
-			if (b.getPlayer() == 'x' && value > maxVal) {
+			if (player == 'x') value = minValueH(b, alpha, beta, count, depth);
+			else value = maxValueH(b, alpha, beta, count, depth);
+			b.undo();
+			if (timeUp) return -1;
+			if (player == 'x' && value > maxVal) {
 				maxVal = value;
-				bestMove = m;
+				bestMove = c;
 			}
-			else if (b.getPlayer() == 'o' && value < minVal) {
+			else if (player == 'o' && value < minVal) {
 				minVal = value;
-				bestMove = m;
+				bestMove = c;
 			}
 		}
 		return bestMove;
 	}
+	
+	/**
+	 * Runs h-minimax to depth 1, 2, 3, ... until a time limit runs out. Each iteration
+	 * searches the previous best move first, and the table hands the best moves of the
+	 * previous iteration to the nodes below, so most of the work of a shallow iteration
+	 * is reused as move ordering. An iteration cut off by the clock is thrown away
+	 * @param b the board
+	 * @param millis the time limit in milliseconds
+	 * @return the best move of the deepest iteration that finished
+	 */
+	public Move timedHMinimax(Board b, long millis) {
+		if (SearchStats.ENABLED) stats.begin();
+		deadline = System.nanoTime() + millis * 1000000;
+		timeUp = false;
+		ordering.newSearch();
+		int bestMove = -1;
+		int empty = b.rows * b.columns - b.moveCount;
+		for (int depth = 0; depth < empty; depth++) {
+			int first = bestMove < 0 ? TranspositionTable.NO_MOVE : bestMove;
+			int move;
+			if (parallel != null) {
+				move = parallel.searchRoot(b, depth, first, deadline);
+				if (SearchStats.ENABLED) parallel.mergeStats(stats);
+			}
+			else move = searchRootH(b, depth, first);
+			if (timeUp || move < 0) break;
+			bestMove = move;
+			if (SearchStats.ENABLED) stats.iteration(depth);
+		}
+		deadline = Long.MAX_VALUE;
+		timeUp = false;
+		if (bestMove < 0 && generate(b) > 0) bestMove = moveLists[b.moveCount][0];
+		return finish("timedHMinimax", b, bestMove);
+	}
+	
+	
+	// SOLVER
+	
+	/**
+	 * Plays the move with the best exact score, solving the rest of the game
+	 * @param b the board
+	 * @return the best move
+	 */
+	public Move solve(Board b) {
+		if (solver == null) solver = new Solver();
+		return decision(b, solver.bestMove(b));
+	}
+	
+	/**
+	 * Gets the solver used by solve
+	 * @return the solver, or null if solve has not been called
+	 */
+	public Solver getSolver() {
+		return solver;
+	}
 }
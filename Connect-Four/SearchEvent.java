@@ -0,0 +1,43 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for one move chosen by a search, committed by SearchStats. Record
+ * with java -Dsearch.stats=true -XX:StartFlightRecording=filename=search.jfr
+ */
+@Name("connectfour.Search")
+@Label("Search")
+@Category("Connect-Four")
+@Description("One move chosen by a search")
+public class SearchEvent extends Event {
+
+	@Label("Search")
+	public String search;
+
+	@Label("Move")
+	public int move;
+
+	@Label("Depth")
+	public int depth;
+
+	@Label("Nodes")
+	public long nodes;
+
+	@Label("Leaves")
+	public long leaves;
+
+	@Label("Branching Factor")
+	public double branchingFactor;
+
+	@Label("Cutoffs")
+	public long cutoffs;
+
+	@Label("First Move Cutoffs")
+	public long firstMoveCutoffs;
+
+	@Label("Table Cutoffs")
+	public long tableCutoffs;
+}
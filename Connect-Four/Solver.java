@@ -0,0 +1,293 @@
+import java.util.Arrays;
+
+/**
+ * Solves Connect-Four positions exactly with null-window negamax searches. Each search
+ * asks if the score is above a guess, and the guesses bisect the range of possible scores
+ * until it closes, like MTD(f). A score counts how early the game ends: a win with the
+ * player's last tile scores 1, and every move sooner scores one more, so the fastest win
+ * and the slowest loss are preferred. The solver keeps its own position cache and only
+ * reads the geometry and position of a Board, not its search state. A position is keyed by
+ * the tiles of the player to move plus the tiles of both players, which is unique since it
+ * sets one bit above each column's top tile; adding the bottom row keeps the key of the empty
+ * board from matching an empty slot.
+ */
+public class Solver {
+
+	protected Board g;
+	protected int cells;
+	protected long bottom;
+	protected long[] keys;
+	protected byte[] values;
+	protected int bits;
+	protected long nodes;
+	protected long nanos;
+	protected int minScore;
+	protected int maxScore;
+	protected int[][] moveLists;
+	protected int[][] moveScores;
+
+	/**
+	 * Creates a solver with a cache of 2^bits positions
+	 * @param bits the log2 of the cache size
+	 */
+	public Solver(int bits) {
+		this.bits = bits;
+		keys = new long[1 << bits];
+		values = new byte[1 << bits];
+	}
+
+	public Solver() {
+		this(21);
+	}
+
+	/**
+	 * Sets up the solver for the size of a board, emptying the cache if the size changed
+	 * @param b the board
+	 */
+	public void prepare(Board b) {
+		if (g != null && g.columns == b.columns && g.rows == b.rows && g.k == b.k) return;
+		g = new Board(b.columns, b.rows, b.k);
+		cells = b.columns * b.rows;
+		bottom = 0;
+		for (int i = 0; i < b.columns; i++) bottom |= 1L << (i * (b.rows + 1));
+		minScore = -cells / 2;
+		maxScore = (cells + 1) / 2;
+		moveLists = new int[cells + 1][b.columns];
+		moveScores = new int[cells + 1][b.columns];
+		Arrays.fill(keys, 0);
+	}
+
+	/**
+	 * Gets the squares where one more tile would connect k for a player, whether or not
+	 * they can be played yet. For every direction and every place the missing tile could
+	 * have in a row of k, the other k - 1 tiles are lined up with shifts and ANDed together
+	 * @param stones the tiles of the player
+	 * @param mask the tiles of both players
+	 * @return the winning squares
+	 */
+	public long winningSquares(long stones, long mask) {
+		long result = completions(stones, 1) | completions(stones, g.rows) |
+				completions(stones, g.rows + 1) | completions(stones, g.rows + 2);
+		return result & g.full & ~mask;
+	}
+
+	/**
+	 * Gets the squares that would complete a row of k in one direction
+	 * @param stones the tiles of the player
+	 * @param shift the distance between neighbouring bits in the direction
+	 * @return the squares, including ones off the board
+	 */
+	public long completions(long stones, int shift) {
+		long result = 0;
+		for (int missing = 0; missing < g.k; missing++) {
+			long run = -1L;
+			for (int j = 0; j < g.k && run != 0; j++) {
+				if (j == missing) continue;
+				int offset = (j - missing) * shift;
+				if (offset > 0) run &= stones >>> offset;
+				else run &= stones << -offset;
+			}
+			result |= run;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the squares that can be played next
+	 * @param mask the tiles of both players
+	 * @return the playable squares
+	 */
+	public long possible(long mask) {
+		return (mask + bottom) & g.full;
+	}
+
+	/**
+	 * Gets the squares the player to move can play without losing on the opponent's next
+	 * move: a forced block if the opponent threatens to win, and never the square just below
+	 * one of the opponent's winning squares
+	 * @param position the tiles of the player to move
+	 * @param mask the tiles of both players
+	 * @return the playable squares that do not lose at once, or 0 if every move loses
+	 */
+	public long nonLosingMoves(long position, long mask) {
+		long possible = possible(mask);
+		long threats = winningSquares(position ^ mask, mask);
+		long forced = possible & threats;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0) return 0;
+			possible = forced;
+		}
+		return possible & ~(threats >>> 1);
+	}
+
+	/**
+	 * Searches a position with a window, returning a score from the point of view of the
+	 * player to move. The player to move is known not to win at once
+	 * @param position the tiles of the player to move
+	 * @param mask the tiles of both players
+	 * @param alpha the alpha
+	 * @param beta the beta
+	 * @return the score if it is inside the window, or a bound on it
+	 */
+	public int negamax(long position, long mask, int alpha, int beta) {
+		nodes++;
+		int moves = Long.bitCount(mask);
+		long next = nonLosingMoves(position, mask);
+		if (next == 0) return -(cells - moves) / 2;
+		if (moves >= cells - 2) return 0;
+
+		int min = -(cells - 2 - moves) / 2;
+		if (alpha < min) {
+			alpha = min;
+			if (alpha >= beta) return alpha;
+		}
+		int max = (cells - 1 - moves) / 2;
+		long key = position + mask + bottom;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+		if (keys[slot] == key) {
+			int value = values[slot] & 0xFF;
+			if (value > maxScore - minScore + 1) {
+				min = value + 2 * minScore - maxScore - 2;
+				if (alpha < min) {
+					alpha = min;
+					if (alpha >= beta) return alpha;
+				}
+			}
+			else {
+				max = value + minScore - 1;
+			}
+		}
+		if (beta > max) {
+			beta = max;
+			if (alpha >= beta) return beta;
+		}
+
+		int[] list = moveLists[moves];
+		int[] scores = moveScores[moves];
+		int n = 0;
+		for (int i = 0; i < g.columns; i++) {
+			long move = next & g.columnMask(g.order[i]);
+			if (move == 0) continue;
+			int score = Long.bitCount(winningSquares(position | move, mask | move));
+			int j = n++;
+			while (j > 0 && scores[j - 1] < score) {
+				scores[j] = scores[j - 1];
+				list[j] = list[j - 1];
+				j--;
+			}
+			scores[j] = score;
+			list[j] = g.order[i];
+		}
+
+		for (int i = 0; i < n; i++) {
+			long move = next & g.columnMask(list[i]);
+			long newMask = mask | move;
+			int score = -negamax(position ^ mask, newMask, -beta, -alpha);
+			if (score >= beta) {
+				keys[slot] = key;
+				values[slot] = (byte) (score + maxScore - 2 * minScore + 2);
+				return score;
+			}
+			if (score > alpha) alpha = score;
+		}
+		keys[slot] = key;
+		values[slot] = (byte) (alpha - minScore + 1);
+		return alpha;
+	}
+
+	/**
+	 * Gets the tiles of the player to move on a board
+	 * @param b the board
+	 * @return the tiles of the player to move
+	 */
+	public long position(Board b) {
+		if (b.getPlayer() == 'x') return b.xBits;
+		else return b.oBits;
+	}
+
+	/**
+	 * Solves a board exactly with null-window searches that bisect the range of scores. The
+	 * guesses lean towards 0 first, since most positions are close to a draw
+	 * @param b the board, which must not be over
+	 * @return the score for the player to move: positive for a win, 0 for a draw, and
+	 * negative for a loss, larger the sooner the game ends in the player's favor
+	 */
+	public int solve(Board b) {
+		prepare(b);
+		long start = System.nanoTime();
+		long position = position(b);
+		long mask = b.mask;
+		int moves = Long.bitCount(mask);
+		int result;
+		if ((winningSquares(position, mask) & possible(mask)) != 0) {
+			result = (cells + 1 - moves) / 2;
+		}
+		else {
+			int min = -(cells - moves) / 2;
+			int max = (cells + 1 - moves) / 2;
+			while (min < max) {
+				int med = min + (max - min) / 2;
+				if (med <= 0 && min / 2 < med) med = min / 2;
+				else if (med >= 0 && max / 2 > med) med = max / 2;
+				int r = negamax(position, mask, med, med + 1);
+				if (r <= med) max = r;
+				else min = r;
+			}
+			result = min;
+		}
+		nanos += System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Finds the move with the best exact score. Columns are tried from the center out
+	 * and the first of equally good moves is kept
+	 * @param b the board, which is not changed
+	 * @return the column of the best move, or -1 if no column can be played
+	 */
+	public int bestMove(Board b) {
+		prepare(b);
+		int best = -1;
+		int bestScore = Integer.MIN_VALUE;
+		long position = position(b);
+		long winning = winningSquares(position, b.mask) & possible(b.mask);
+		for (int i = 0; i < b.columns; i++) {
+			int c = b.order[i];
+			if (!b.canPlay(c)) continue;
+			if ((winning & b.columnMask(c)) != 0) return c;
+			b.play(c);
+			int score = b.gameOver() ? 0 : -solve(b);
+			b.undo();
+			if (score > bestScore) {
+				bestScore = score;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the number of positions searched since the solver was made or reset
+	 * @return the number of positions
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of positions searched per second since the solver was made or reset
+	 * @return the number of positions per second
+	 */
+	public long nodesPerSecond() {
+		if (nanos == 0) return 0;
+		return nodes * 1000000000L / nanos;
+	}
+
+	/**
+	 * Resets the node count and timer
+	 */
+	public void resetStats() {
+		nodes = 0;
+		nanos = 0;
+	}
+}
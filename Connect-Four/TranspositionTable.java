@@ -0,0 +1,162 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TranspositionTable {
+
+	public static final int EXACT = 0;
+	public static final int LOWER = 1;
+	public static final int UPPER = 2;
+	public static final int NO_MOVE = 0xFF;
+
+	protected long[] keys;
+	protected long[] entries;
+	protected int buckets;
+	protected LongAdder hits = new LongAdder();
+	protected LongAdder misses = new LongAdder();
+	protected LongAdder collisions = new LongAdder();
+
+	/**
+	 * Creates a table with 2^bits buckets of two entries each. The first entry of a bucket
+	 * keeps the deepest search seen, and the second is replaced on every store
+	 * @param bits the log2 of the number of buckets
+	 */
+	public TranspositionTable(int bits) {
+		buckets = 1 << bits;
+		keys = new long[buckets * 2];
+		entries = new long[buckets * 2];
+	}
+
+	/**
+	 * Packs a search result into one long. The top bit marks the entry as used so that an
+	 * empty slot is always 0
+	 * @param value the utility value
+	 * @param depth the depth the value was searched to
+	 * @param bound if the value is exact, a lower bound, or an upper bound
+	 * @param move the column of the best move, or NO_MOVE
+	 * @return the packed entry
+	 */
+	public static long pack(int value, int depth, int bound, int move) {
+		return (value & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) bound << 40) |
+				((long) (move & 0xFF) << 42) | (1L << 63);
+	}
+
+	/**
+	 * Gets the value of an entry
+	 * @param entry the entry
+	 * @return the utility value
+	 */
+	public static int value(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * Gets the depth of an entry
+	 * @param entry the entry
+	 * @return the depth the value was searched to
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> 32) & 0xFF;
+	}
+
+	/**
+	 * Gets the bound type of an entry
+	 * @param entry the entry
+	 * @return EXACT, LOWER, or UPPER
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> 40) & 0x3;
+	}
+
+	/**
+	 * Gets the best move of an entry
+	 * @param entry the entry
+	 * @return the column of the best move, or NO_MOVE
+	 */
+	public static int move(long entry) {
+		return (int) (entry >>> 42) & 0xFF;
+	}
+
+	/**
+	 * Looks up a position. Every slot stores its key XORed with its entry, so a slot torn
+	 * by two threads writing at once no longer matches its key and reads as a miss instead
+	 * of needing a lock. Hits, misses and collisions are only counted if SearchStats.ENABLED
+	 * @param key the Zobrist hash of the position
+	 * @return the entry, or 0 if the position is not in the table
+	 */
+	public long probe(long key) {
+		int slot = (int) (key & (buckets - 1)) * 2;
+		boolean occupied = false;
+		for (int i = slot; i < slot + 2; i++) {
+			long entry = entries[i];
+			if (entry == 0) continue;
+			if ((keys[i] ^ entry) == key) {
+				if (SearchStats.ENABLED) hits.increment();
+				return entry;
+			}
+			occupied = true;
+		}
+		if (SearchStats.ENABLED) {
+			misses.increment();
+			if (occupied) collisions.increment();
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores a search result. The depth-preferred slot is overwritten by the same position
+	 * or by a search at least as deep, and everything else goes in the always-replace slot
+	 * @param key the Zobrist hash of the position
+	 * @param value the utility value
+	 * @param depth the depth the value was searched to
+	 * @param bound if the value is exact, a lower bound, or an upper bound
+	 * @param move the column of the best move, or NO_MOVE
+	 */
+	public void store(long key, int value, int depth, int bound, int move) {
+		int slot = (int) (key & (buckets - 1)) * 2;
+		long entry = pack(value, depth, bound, move);
+		long old = entries[slot];
+		if (old == 0 || (keys[slot] ^ old) == key || depth >= depth(old)) {
+			keys[slot] = key ^ entry;
+			entries[slot] = entry;
+		}
+		else {
+			keys[slot + 1] = key ^ entry;
+			entries[slot + 1] = entry;
+		}
+	}
+
+	/**
+	 * Empties the table and resets its counters
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(entries, 0);
+		hits.reset();
+		misses.reset();
+		collisions.reset();
+	}
+
+	/**
+	 * Gets the number of probes that found their position
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of probes that did not find their position
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the number of misses where the bucket was holding other positions
+	 * @return the number of collisions
+	 */
+	public long getCollisions() {
+		return collisions.sum();
+	}
+}
@@ -0,0 +1,422 @@
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Microbenchmarks for the board and the searches, and perft node counts that check the
+ * board against a plain reference and against the published counts for 8x8 Othello. Each
+ * benchmark runs a few warm-up iterations so the JIT has compiled it, then times several
+ * iterations of about half a second each and reports the mean time per position with its
+ * standard deviation. Every result is added to a sink so the work cannot be optimized away.
+ * The positions are the same on every run: the starting board and boards after a fixed
+ * number of seeded random moves.
+ *
+ * The speedup mode times iterative deepening to a fixed depth on a suite of 8x8 middlegame
+ * positions, once on one thread and once on several, each with an empty table of the same
+ * size, and prints the time, nodes per thread and speedup of each position.
+ *
+ * Usage: java Benchmark [perft | speedup [threads [depth]] | name filters...]
+ */
+public class Benchmark {
+
+	public static final int WARMUPS = 3;
+	public static final int ITERATIONS = 5;
+	public static final long ITERATION_NANOS = 500000000L;
+	public static final long[] PERFT_8X8 = {1, 4, 12, 56, 244, 1396, 8200, 55092, 390216};
+	public static volatile long sink;
+
+	/**
+	 * Creates the fixed positions for a board size
+	 * @param size the width of the board
+	 * @param plies the number of random moves before each position, one position each
+	 * @return the positions
+	 */
+	public static Board[] positions(int size, int... plies) {
+		Random random = new Random(42);
+		Board[] boards = new Board[plies.length];
+		for (int i = 0; i < plies.length; i++) {
+			Board b = new Board(size);
+			b.newBoard();
+			for (int j = 0; j < plies[i] && !b.gameOver(b.board); j++) {
+				LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+				b = b.makeMove(b, actions.get(random.nextInt(actions.size())));
+			}
+			if (!b.anyMoves(b.board, b.getPlayer())) b = b.makeMove(b, new Move(b.getPlayer()));
+			boards[i] = b;
+		}
+		return boards;
+	}
+
+	/**
+	 * Times a benchmark and prints the result
+	 * @param name the name of the benchmark
+	 * @param operations the number of positions each call works on
+	 * @param op the benchmark, returning a result for the sink
+	 */
+	public static void measure(String name, int operations, LongSupplier op) {
+		for (int i = 0; i < WARMUPS; i++) iteration(op);
+		double[] samples = new double[ITERATIONS];
+		double mean = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			samples[i] = iteration(op) / operations;
+			mean += samples[i] / ITERATIONS;
+		}
+		double variance = 0;
+		for (double s : samples) variance += (s - mean) * (s - mean) / ITERATIONS;
+		System.out.printf("%-32s %14.1f ns/op  +- %.1f%n", name, mean, Math.sqrt(variance));
+	}
+
+	/**
+	 * Runs a benchmark over and over for one iteration
+	 * @param op the benchmark
+	 * @return the time of one call in nanoseconds
+	 */
+	public static double iteration(LongSupplier op) {
+		long calls = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			sink += op.getAsLong();
+			calls++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ITERATION_NANOS);
+		return (double) elapsed / calls;
+	}
+
+	/**
+	 * Counts the positions at a depth with actions and makeMove. A pass counts as a move,
+	 * and a finished game counts as one position
+	 * @param b the board
+	 * @param depth the depth
+	 * @return the number of positions
+	 */
+	public static long perft(Board b, int depth) {
+		if (depth == 0 || b.gameOver(b.board)) return 1;
+		long count = 0;
+		for (Move m : b.actions(b.board, b.getPlayer())) count += perft(b.makeMove(b, m), depth - 1);
+		return count;
+	}
+
+	/**
+	 * Counts the positions at a depth on a plain grid that shares no code with Board
+	 * @param grid the grid, grid[x][y]
+	 * @param player the player to move
+	 * @param depth the depth
+	 * @return the number of positions
+	 */
+	public static long perftReference(char[][] grid, char player, int depth) {
+		if (depth == 0) return 1;
+		char opponent = player == 'x' ? 'o' : 'x';
+		int size = grid.length;
+		long count = 0;
+		boolean moved = false;
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (grid[x][y] != ' ' || flips(grid, player, x, y, false) == 0) continue;
+				moved = true;
+				char[][] next = new char[size][];
+				for (int i = 0; i < size; i++) next[i] = grid[i].clone();
+				flips(next, player, x, y, true);
+				next[x][y] = player;
+				count += perftReference(next, opponent, depth - 1);
+			}
+		}
+		if (moved) return count;
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				if (grid[x][y] == ' ' && flips(grid, opponent, x, y, false) > 0) {
+					return perftReference(grid, opponent, depth - 1);
+				}
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Counts, and optionally flips, the tiles a move on a plain grid would flip
+	 * @param grid the grid
+	 * @param player the player moving
+	 * @param x the column of the move
+	 * @param y the row of the move
+	 * @param flip if the tiles should be flipped
+	 * @return the number of tiles flipped
+	 */
+	public static int flips(char[][] grid, char player, int x, int y, boolean flip) {
+		int size = grid.length;
+		int total = 0;
+		for (int dx = -1; dx <= 1; dx++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				if (dx == 0 && dy == 0) continue;
+				int i = x + dx;
+				int j = y + dy;
+				int run = 0;
+				while (i >= 0 && i < size && j >= 0 && j < size && grid[i][j] != ' ' &&
+						grid[i][j] != player) {
+					i += dx;
+					j += dy;
+					run++;
+				}
+				if (run == 0 || i < 0 || i >= size || j < 0 || j >= size || grid[i][j] != player) continue;
+				total += run;
+				if (flip) {
+					for (int s = 1; s <= run; s++) grid[x + s * dx][y + s * dy] = player;
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Copies a board onto a plain grid
+	 * @param b the board
+	 * @return the grid, grid[x][y]
+	 */
+	public static char[][] grid(Board b) {
+		char[][] grid = new char[b.size][];
+		for (int x = 0; x < b.size; x++) grid[x] = b.board[x].clone();
+		return grid;
+	}
+
+	/**
+	 * Checks the perft counts of the starting 8x8 board against the published counts, and
+	 * the board against the plain reference on every fixed position, printing the counts and
+	 * how fast the board counted them
+	 * @return if every count agreed
+	 */
+	public static boolean checkPerft() {
+		boolean ok = true;
+		Board start = positions(8, 0)[0];
+		for (int depth = 1; depth < PERFT_8X8.length; depth++) {
+			long begin = System.nanoTime();
+			long count = perft(start, depth);
+			long nanos = System.nanoTime() - begin;
+			boolean same = count == PERFT_8X8[depth];
+			ok &= same;
+			System.out.printf("8x8 start, depth %d: %12d %12d %s %,d nodes/s%n", depth, count,
+					PERFT_8X8[depth], same ? "ok" : "MISMATCH", (long) (count * 1e9 / nanos));
+		}
+		List<Board> boards = new ArrayList<Board>();
+		List<Integer> depths = new ArrayList<Integer>();
+		for (Board b : positions(4, 0, 3)) {
+			boards.add(b);
+			depths.add(16);
+		}
+		for (Board b : positions(6, 0, 8, 16)) {
+			boards.add(b);
+			depths.add(6);
+		}
+		for (Board b : positions(8, 10, 20, 30, 40, 50)) {
+			boards.add(b);
+			depths.add(5);
+		}
+		for (int i = 0; i < boards.size(); i++) {
+			Board b = boards.get(i);
+			int depth = depths.get(i);
+			long begin = System.nanoTime();
+			long count = perft(b, depth);
+			long nanos = System.nanoTime() - begin;
+			long reference = perftReference(grid(b), b.getPlayer(), depth);
+			boolean same = count == reference;
+			ok &= same;
+			System.out.printf("%dx%d position %d, depth %2d: %12d %12d %s %,d nodes/s%n", b.size,
+					b.size, i, depth, count, reference, same ? "ok" : "MISMATCH",
+					(long) (count * 1e9 / nanos));
+		}
+		return ok;
+	}
+
+	/**
+	 * Measures how much faster a parallel search reaches a fixed depth than a search on one
+	 * thread, on the same suite of positions every run
+	 * @param threads the number of threads of the parallel search
+	 * @param depth the depth to deepen to
+	 */
+	public static void speedup(int threads, int depth) {
+		Board[] suite = positions(8, 12, 16, 20, 24, 28, 32, 36);
+		// warm up the JIT on both searches
+		for (int t : new int[] {1, threads}) {
+			Search warmup = new Search(new TranspositionTable(16));
+			warmup.setThreads(t);
+			for (Board b : suite) warmup.iterativeHMinimax(b, Math.min(depth, 5));
+			warmup.shutdown();
+		}
+		System.out.printf("Speedup of %d threads at depth %d%n", threads, depth);
+		double totalSerial = 0;
+		double totalParallel = 0;
+		double logSpeedups = 0;
+		for (int i = 0; i < suite.length; i++) {
+			Board b = suite[i];
+			double[] seconds = new double[2];
+			long[][] nodes = new long[2][];
+			for (int run = 0; run < 2; run++) {
+				Search search = new Search(new TranspositionTable(20));
+				search.setEndgameEmpties(0);
+				search.setThreads(run == 0 ? 1 : threads);
+				long begin = System.nanoTime();
+				sink += search.iterativeHMinimax(b, depth).getX();
+				seconds[run] = (System.nanoTime() - begin) / 1e9;
+				nodes[run] = search.getThreadNodes();
+				search.shutdown();
+			}
+			double speedup = seconds[0] / seconds[1];
+			totalSerial += seconds[0];
+			totalParallel += seconds[1];
+			logSpeedups += Math.log(speedup);
+			StringBuilder perThread = new StringBuilder();
+			for (long n : nodes[1]) perThread.append(String.format(" %,d", n));
+			System.out.printf("position %d, %2d empty: %8.3f s %,12d nodes | %8.3f s, nodes per thread%s | %.2fx%n",
+					i, b.empties(), seconds[0], nodes[0][0], seconds[1], perThread, speedup);
+		}
+		System.out.printf("Total %.3f s on 1 thread, %.3f s on %d: %.2fx, geometric mean %.2fx%n",
+				totalSerial, totalParallel, threads, totalSerial / totalParallel,
+				Math.exp(logSpeedups / suite.length));
+	}
+
+	/**
+	 * Checks if a benchmark was asked for
+	 * @param name the name of the benchmark
+	 * @param filters the filters, or none for every benchmark
+	 * @return if the benchmark should run
+	 */
+	public static boolean selected(String name, String[] filters) {
+		if (filters.length == 0) return true;
+		for (String f : filters) {
+			if (name.contains(f)) return true;
+		}
+		return false;
+	}
+
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("perft")) {
+			if (!checkPerft()) System.exit(1);
+			return;
+		}
+		if (args.length > 0 && args[0].equals("speedup")) {
+			int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+			int depth = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+			speedup(threads, depth);
+			return;
+		}
+		Board[] boards = positions(8, 0, 10, 20, 30, 40, 50);
+		int n = boards.length;
+		Board[] small = positions(4, 4, 6);
+		List<String> names = new ArrayList<String>();
+		List<Integer> counts = new ArrayList<Integer>();
+		List<LongSupplier> ops = new ArrayList<LongSupplier>();
+
+		names.add("Board.actions");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.actions(b.board, b.getPlayer()).size();
+			return sum;
+		});
+		names.add("Board.makeMove");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) {
+				Board next = b.makeMove(b, b.actions(b.board, b.getPlayer()).getFirst());
+				sum += next.getPlayer();
+			}
+			return sum;
+		});
+		names.add("Board.gameOver");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) if (b.gameOver(b.board)) sum++;
+			return sum;
+		});
+		names.add("Board.evaluate");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.evaluate();
+			return sum;
+		});
+		names.add("Board.numberOfMoves");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.numberOfMoves(b);
+			return sum;
+		});
+		names.add("Board.numberOfCorners");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.numberOfCorners(b);
+			return sum;
+		});
+		names.add("Board.numberOfSecondLine");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += b.numberOfSecondLine(b);
+			return sum;
+		});
+		Search search = new Search();
+		names.add("Search.random");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += search.random(b).getX();
+			return sum;
+		});
+		names.add("Search.minimax 4x4");
+		counts.add(small.length);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : small) sum += search.minimax(b).getX();
+			return sum;
+		});
+		names.add("Search.abMinimax 4x4");
+		counts.add(small.length);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : small) {
+				search.table.clear();
+				sum += search.abMinimax(b).getX();
+			}
+			return sum;
+		});
+		for (int depth : new int[] {1, 2, 3}) {
+			names.add("Search.hMinimax depth " + depth);
+			counts.add(n);
+			ops.add(() -> {
+				long sum = 0;
+				for (Board b : boards) {
+					search.table.clear();
+					sum += search.hMinimax(b, depth).getX();
+				}
+				return sum;
+			});
+		}
+		Board[] late = positions(8, 46, 48, 50, 52);
+		names.add("Endgame.solve");
+		counts.add(late.length);
+		ops.add(() -> {
+			long sum = 0;
+			Endgame endgame = new Endgame(16);
+			for (Board b : late) sum += endgame.solve(b);
+			return sum;
+		});
+		MonteCarloSearch monteCarlo = new MonteCarloSearch(1);
+		monteCarlo.setPlayouts(1000);
+		names.add("MonteCarloSearch 1000 playouts");
+		counts.add(n);
+		ops.add(() -> {
+			long sum = 0;
+			for (Board b : boards) sum += monteCarlo.search(b).getX();
+			return sum;
+		});
+
+		for (int i = 0; i < names.size(); i++) {
+			if (selected(names.get(i), args)) measure(names.get(i), counts.get(i), ops.get(i));
+		}
+		monteCarlo.shutdown();
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Move generation and flips for Othello on 64-bit bitboards, one long per player. Square
+ * (x, y) is bit x * 8 + y, so each column is a byte and the bits run in the same order
+ * Board lists its moves. Smaller boards use the low corner of the 8x8 grid, and the squares
+ * outside them are never set and never in the empty mask, so the same shifts work for every
+ * size.
+ *
+ * Every direction is filled with a Kogge-Stone parallel prefix: three shifts by 1, 2 and 4
+ * squares find the whole run of opponent tiles next to each stone, for all stones at once,
+ * with no loops over squares. Before filling, the opponent tiles are masked with the
+ * direction's wrap mask so a run can never cross from one column into the next.
+ */
+public class Bitboard {
+
+	public static final long NOT_FIRST_ROW = 0xFEFEFEFEFEFEFEFEL;
+	public static final long NOT_LAST_ROW = 0x7F7F7F7F7F7F7F7FL;
+	public static final int[] SHIFTS = {1, -1, 8, -8, 9, -9, 7, -7};
+	public static final long[] MASKS = {NOT_FIRST_ROW, NOT_LAST_ROW, -1L, -1L, NOT_FIRST_ROW,
+			NOT_LAST_ROW, NOT_LAST_ROW, NOT_FIRST_ROW};
+
+	/**
+	 * Gets the bit of a square
+	 * @param x the column
+	 * @param y the row
+	 * @return the bit
+	 */
+	public static long bit(int x, int y) {
+		return 1L << (x * 8 + y);
+	}
+
+	/**
+	 * Moves a square by one of the eight rotations and reflections of a board: the column
+	 * is mirrored if bit 0 of the symmetry is set, the row if bit 1 is, and then the two are
+	 * swapped if bit 2 is
+	 * @param symmetry the symmetry, from 0 to 7
+	 * @param square the square
+	 * @param size the width of the board
+	 * @return the square it moves to
+	 */
+	public static int transform(int symmetry, int square, int size) {
+		int x = square >>> 3;
+		int y = square & 7;
+		if ((symmetry & 1) != 0) x = size - 1 - x;
+		if ((symmetry & 2) != 0) y = size - 1 - y;
+		if ((symmetry & 4) != 0) return y * 8 + x;
+		return x * 8 + y;
+	}
+
+	/**
+	 * Moves a square back by a symmetry, undoing transform
+	 * @param symmetry the symmetry, from 0 to 7
+	 * @param square the square
+	 * @param size the width of the board
+	 * @return the square it came from
+	 */
+	public static int inverse(int symmetry, int square, int size) {
+		int x = square >>> 3;
+		int y = square & 7;
+		if ((symmetry & 4) != 0) {
+			x = square & 7;
+			y = square >>> 3;
+		}
+		if ((symmetry & 1) != 0) x = size - 1 - x;
+		if ((symmetry & 2) != 0) y = size - 1 - y;
+		return x * 8 + y;
+	}
+
+	/**
+	 * Gets the squares of a board size
+	 * @param size the width of the board, at most 8
+	 * @return a mask of every square on the board
+	 */
+	public static long inside(int size) {
+		long column = (1L << size) - 1;
+		long mask = 0;
+		for (int x = 0; x < size; x++) mask |= column << (x * 8);
+		return mask;
+	}
+
+	/**
+	 * Shifts every bit one square in a direction, dropping bits that would wrap
+	 * @param b the bits
+	 * @param shift the shift of the direction, positive to the left
+	 * @param mask the wrap mask of the direction
+	 * @return the shifted bits
+	 */
+	public static long shift(long b, int shift, long mask) {
+		return (shift > 0 ? b << shift : b >>> -shift) & mask;
+	}
+
+	/**
+	 * Fills from some squares along a direction through a run of other squares
+	 * @param gen the squares to start from
+	 * @param pro the squares the fill may pass through
+	 * @param shift the shift of the direction, positive to the left
+	 * @param mask the wrap mask of the direction
+	 * @return the start squares and every square reached through pro
+	 */
+	public static long fill(long gen, long pro, int shift, long mask) {
+		pro &= mask;
+		if (shift > 0) {
+			gen |= pro & (gen << shift);
+			pro &= pro << shift;
+			gen |= pro & (gen << (shift << 1));
+			pro &= pro << (shift << 1);
+			gen |= pro & (gen << (shift << 2));
+		}
+		else {
+			shift = -shift;
+			gen |= pro & (gen >>> shift);
+			pro &= pro >>> shift;
+			gen |= pro & (gen >>> (shift << 1));
+			pro &= pro >>> (shift << 1);
+			gen |= pro & (gen >>> (shift << 2));
+		}
+		return gen;
+	}
+
+	/**
+	 * Finds every legal move of a player
+	 * @param player the player's tiles
+	 * @param opponent the opponent's tiles
+	 * @param empty the empty squares of the board
+	 * @return a mask of the squares the player can play
+	 */
+	public static long moves(long player, long opponent, long empty) {
+		long moves = 0;
+		for (int d = 0; d < 8; d++) {
+			long run = fill(player, opponent, SHIFTS[d], MASKS[d]) & opponent;
+			moves |= shift(run, SHIFTS[d], MASKS[d]);
+		}
+		return moves & empty;
+	}
+
+	/**
+	 * Finds the tiles a move flips
+	 * @param player the player's tiles
+	 * @param opponent the opponent's tiles
+	 * @param move the bit of the move
+	 * @return a mask of the opponent tiles that are flipped
+	 */
+	public static long flips(long player, long opponent, long move) {
+		long flips = 0;
+		for (int d = 0; d < 8; d++) {
+			long run = fill(move, opponent, SHIFTS[d], MASKS[d]);
+			if ((shift(run, SHIFTS[d], MASKS[d]) & player) != 0) flips |= run & ~move;
+		}
+		return flips;
+	}
+}
@@ -1,13 +1,37 @@
 import java.util.LinkedList;
+import java.util.Random;
 
 public class Board {
 	
 	protected int size;
 	protected char[][] board;
 	protected char currentPlayer;
+	protected long xBits;
+	protected long oBits;
+	protected long inside;
+	protected long xMoves = -1;
+	protected long oMoves = -1;
+	protected int passes;
+	protected Evaluation evaluation;
+	protected int[] patterns;
+	protected long[] hashes;
+	protected long[][] symmetricKeys;
+	// moves played in place and what undo needs to take each one back, made once per board
+	public static final int MAX_PLY = 130;
+	protected int ply;
+	protected int[] played;
+	protected long[] playedFlips;
+	protected long[] savedBits;
+	protected long[] savedMoves;
+	protected int[] savedPasses;
+	protected static final long[][] ZOBRIST = zobristKeys();
+	protected static final long SIDE = ZOBRIST[2][0];
+	protected static final long[][][] SYMMETRIC_KEYS = new long[9][][];
 	
 	public Board(int s) {
 		size = s;
+		if (size > 8) throw new IllegalArgumentException("A " + size + "x" + size + " board does not fit in a bitboard");
+		inside = Bitboard.inside(size);
 	}
 
 	public void newBoard() {
@@ -21,10 +45,94 @@ public class Board {
 		board[size/2 - 1][size/2] = 'x';
 		board[size/2][size/2 - 1] = 'x';
 		board[size/2][size/2] = 'o';
+		xBits = Bitboard.bit(size/2 - 1, size/2) | Bitboard.bit(size/2, size/2 - 1);
+		oBits = Bitboard.bit(size/2 - 1, size/2 - 1) | Bitboard.bit(size/2, size/2);
+		evaluation = Evaluation.forSize(size);
+		patterns = evaluation.indices(xBits, oBits);
+		symmetricKeys = symmetricKeys(size);
+		hashes = new long[8];
+		for (long tiles = xBits | oBits; tiles != 0; tiles &= tiles - 1) {
+			int square = Long.numberOfTrailingZeros(tiles);
+			hash(hashes, square, (xBits & (1L << square)) != 0 ? 0 : 1);
+		}
 		
 		currentPlayer = 'x';
 	}
 	
+	// keys for each player on each square and for o to move, from a fixed seed
+	public static long[][] zobristKeys() {
+		Random rand = new Random(242);
+		long[][] keys = new long[3][64];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 64; j++) keys[i][j] = rand.nextLong();
+		}
+		return keys;
+	}
+	
+	// keys[player][square * 8 + s] is the key of the square that symmetry s moves the square to
+	public static synchronized long[][] symmetricKeys(int size) {
+		if (SYMMETRIC_KEYS[size] == null) {
+			long[][] keys = new long[2][64 * 8];
+			for (int p = 0; p < 2; p++) {
+				for (int square = 0; square < 64; square++) {
+					if ((square >>> 3) >= size || (square & 7) >= size) continue;
+					for (int s = 0; s < 8; s++) keys[p][square * 8 + s] = ZOBRIST[p][Bitboard.transform(s, square, size)];
+				}
+			}
+			SYMMETRIC_KEYS[size] = keys;
+		}
+		return SYMMETRIC_KEYS[size];
+	}
+	
+	// hashes[s] is the hash of the board moved by symmetry s
+	public void hash(long[] hashes, int square, int player) {
+		long[] keys = symmetricKeys[player];
+		int base = square * 8;
+		for (int s = 0; s < 8; s++) hashes[s] ^= keys[base + s];
+	}
+	
+	public int symmetry() {
+		int best = 0;
+		for (int s = 1; s < 8; s++) {
+			if (hashes[s] < hashes[best]) best = s;
+		}
+		return best;
+	}
+	
+	// the same for every rotation and reflection of the board
+	public long key() {
+		long key = hashes[symmetry()];
+		if (currentPlayer == 'o') key ^= SIDE;
+		return key;
+	}
+	
+	public long tiles(char[][] b, char player) {
+		if (b == board) return player == 'x' ? xBits : oBits;
+		long tiles = 0;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				if (b[i][j] == player) tiles |= Bitboard.bit(i, j);
+			}
+		}
+		return tiles;
+	}
+	
+	public long legalMoves(char[][] b, char player) {
+		// each player's moves are found once per position, -1 until then
+		if (b == board) {
+			if (player == 'x' && xMoves != -1) return xMoves;
+			if (player == 'o' && oMoves != -1) return oMoves;
+		}
+		long own = tiles(b, player);
+		long other = tiles(b, player == 'x' ? 'o' : 'x');
+		long moves = Bitboard.moves(own, other, inside & ~(own | other));
+		if (b == board) {
+			if (player == 'x') xMoves = moves;
+			else oMoves = moves;
+		}
+		return moves;
+	}
+	
 	public char getPlayer() {
 		return currentPlayer;
 	}
@@ -56,24 +164,15 @@ public class Board {
 	public boolean validMove(char[][] b, Move m) {
 		int x = m.getX();
 		int y = m.getY();
-		
-		for (int i = Math.max(x - 1, 0); i <= Math.min(x + 1, size - 1); i++) {
-			for (int j = Math.max(y - 1, 0); j <= Math.min(y + 1, size - 1); j++) {
-				if (!(i - x == 0 && j - y == 0) && emptySquare(b, x, y)) {
-					if (testDirection(b, m, i - x, j - y)) return true;
-				}
-			}
-		}
-		return false;
+		if (x < 0 || x >= size || y < 0 || y >= size) return false;
+		return (legalMoves(b, m.getPlayer()) & Bitboard.bit(x, y)) != 0;
 	}
 	
 	public LinkedList<Move> actions(char[][] b, char p) {
 		LinkedList<Move> actions = new LinkedList<Move>();
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				Move m = new Move(i, j, p);
-				if (validMove(b, m)) actions.add(m);
-			}
+		for (long moves = legalMoves(b, p); moves != 0; moves &= moves - 1) {
+			int square = Long.numberOfTrailingZeros(moves);
+			actions.add(new Move(square >>> 3, square & 7, p));
 		}
 		if (actions.isEmpty()) {
 			Move m = new Move(p);
@@ -83,9 +182,18 @@ public class Board {
 	}
 	
 	public int numberOfMoves(Board b) {
-		LinkedList<Move> actionsX = actions(b.board, 'x');
-		LinkedList<Move> actionsO = actions(b.board, 'o');
-		return actionsX.size() - actionsO.size();
+		// a player with no moves has one action, the pass
+		int movesX = Math.max(Long.bitCount(b.legalMoves(b.board, 'x')), 1);
+		int movesO = Math.max(Long.bitCount(b.legalMoves(b.board, 'o')), 1);
+		return movesX - movesO;
+	}
+	
+	public int empties() {
+		return Long.bitCount(inside & ~(xBits | oBits));
+	}
+	
+	public int evaluate() {
+		return evaluation.score(patterns);
 	}
 	
 	public int numberOfCorners(Board b) {
@@ -125,13 +233,110 @@ public class Board {
 	}
 	
 	public char[][] copyBoard(Board oldBoard) {
-		char[][] newBoard = new char[size][size];
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				newBoard[i][j] = oldBoard.board[i][j];
+		char[][] newBoard = new char[size][];
+		for (int i = 0; i < size; i++) newBoard[i] = oldBoard.board[i].clone();
+		return newBoard;
+	}
+	
+	// a board of its own for another thread, which can play and undo moves without touching this one
+	public Board copy() {
+		Board newBoard = new Board(size);
+		newBoard.board = copyBoard(this);
+		newBoard.currentPlayer = currentPlayer;
+		newBoard.xBits = xBits;
+		newBoard.oBits = oBits;
+		newBoard.xMoves = xMoves;
+		newBoard.oMoves = oMoves;
+		newBoard.passes = passes;
+		newBoard.evaluation = evaluation;
+		newBoard.patterns = patterns.clone();
+		newBoard.hashes = hashes.clone();
+		newBoard.symmetricKeys = symmetricKeys;
+		return newBoard;
+	}
+	
+	// writes the moves of the player to move as squares, or just PASS, and gives their number
+	public int generateMoves(int[] list) {
+		long moves = legalMoves(board, currentPlayer);
+		if (moves == 0) {
+			list[0] = Move.PASS;
+			return 1;
+		}
+		int n = 0;
+		for (; moves != 0; moves &= moves - 1) list[n++] = Long.numberOfTrailingZeros(moves);
+		return n;
+	}
+	
+	// plays a square or PASS for the player to move on this board, to be taken back by undo
+	public void play(int move) {
+		if (played == null) {
+			played = new int[MAX_PLY];
+			playedFlips = new long[MAX_PLY];
+			savedBits = new long[2 * MAX_PLY];
+			savedMoves = new long[2 * MAX_PLY];
+			savedPasses = new int[MAX_PLY];
+		}
+		int i = ply++;
+		played[i] = move;
+		savedBits[2 * i] = xBits;
+		savedBits[2 * i + 1] = oBits;
+		savedMoves[2 * i] = xMoves;
+		savedMoves[2 * i + 1] = oMoves;
+		savedPasses[i] = passes;
+		char player = currentPlayer;
+		currentPlayer = getOpponent();
+		if (move == Move.PASS) {
+			// the tiles are the same, so are the moves
+			passes++;
+			return;
+		}
+		long bit = 1L << move;
+		long own = player == 'x' ? xBits : oBits;
+		long other = player == 'x' ? oBits : xBits;
+		long flips = Bitboard.flips(own, other, bit);
+		playedFlips[i] = flips;
+		own |= bit | flips;
+		other &= ~flips;
+		xBits = player == 'x' ? own : other;
+		oBits = player == 'x' ? other : own;
+		xMoves = -1;
+		oMoves = -1;
+		passes = 0;
+		board[move >>> 3][move & 7] = player;
+		evaluation.place(patterns, move, player);
+		hash(hashes, move, player == 'x' ? 0 : 1);
+		for (; flips != 0; flips &= flips - 1) {
+			int square = Long.numberOfTrailingZeros(flips);
+			board[square >>> 3][square & 7] = player;
+			evaluation.flip(patterns, square, player);
+			hash(hashes, square, 0);
+			hash(hashes, square, 1);
+		}
+	}
+	
+	public void undo() {
+		int i = --ply;
+		int move = played[i];
+		char opponent = currentPlayer;
+		currentPlayer = getOpponent();
+		if (move != Move.PASS) {
+			char player = currentPlayer;
+			board[move >>> 3][move & 7] = ' ';
+			evaluation.remove(patterns, move, player);
+			hash(hashes, move, player == 'x' ? 0 : 1);
+			for (long flips = playedFlips[i]; flips != 0; flips &= flips - 1) {
+				int square = Long.numberOfTrailingZeros(flips);
+				board[square >>> 3][square & 7] = opponent;
+				evaluation.flip(patterns, square, opponent);
+				hash(hashes, square, 0);
+				hash(hashes, square, 1);
 			}
 		}
-		return newBoard;
+		xBits = savedBits[2 * i];
+		oBits = savedBits[2 * i + 1];
+		xMoves = savedMoves[2 * i];
+		oMoves = savedMoves[2 * i + 1];
+		passes = savedPasses[i];
 	}
 	
 	public Board makeMove(Board oldBoard, Move m) {
@@ -140,9 +345,39 @@ public class Board {
 		char player = m.getPlayer();
 		Board newBoard = new Board(size);
 		newBoard.board = copyBoard(oldBoard);
-		if (!m.skipMove()) {
+		newBoard.xBits = oldBoard.xBits;
+		newBoard.oBits = oldBoard.oBits;
+		newBoard.evaluation = oldBoard.evaluation;
+		// boards never share arrays, since play changes them in place
+		newBoard.patterns = oldBoard.patterns.clone();
+		newBoard.hashes = oldBoard.hashes.clone();
+		newBoard.symmetricKeys = oldBoard.symmetricKeys;
+		if (m.skipMove()) {
+			// the tiles are the same, so are the moves
+			newBoard.xMoves = oldBoard.xMoves;
+			newBoard.oMoves = oldBoard.oMoves;
+			newBoard.passes = oldBoard.passes + 1;
+		}
+		else {
+			long move = Bitboard.bit(x, y);
+			long own = oldBoard.tiles(oldBoard.board, player);
+			long other = oldBoard.tiles(oldBoard.board, m.getOpponent());
+			long flips = Bitboard.flips(own, other, move);
+			own |= move | flips;
+			other &= ~flips;
+			newBoard.xBits = player == 'x' ? own : other;
+			newBoard.oBits = player == 'x' ? other : own;
 			newBoard.board[x][y] = player;
-			newBoard.board = flip(newBoard.board, m);
+			int p = player == 'x' ? 0 : 1;
+			newBoard.evaluation.place(newBoard.patterns, Long.numberOfTrailingZeros(move), player);
+			newBoard.hash(newBoard.hashes, Long.numberOfTrailingZeros(move), p);
+			for (; flips != 0; flips &= flips - 1) {
+				int square = Long.numberOfTrailingZeros(flips);
+				newBoard.board[square >>> 3][square & 7] = player;
+				newBoard.evaluation.flip(newBoard.patterns, square, player);
+				newBoard.hash(newBoard.hashes, square, 0);
+				newBoard.hash(newBoard.hashes, square, 1);
+			}
 		}
 		newBoard.currentPlayer = oldBoard.getOpponent();
 		//System.out.println(m.getX() + ", " + m.getY());
@@ -209,28 +444,21 @@ public class Board {
 	}
 	
 	public boolean anyMoves(char[][] b, char player) {
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				Move m = new Move(i, j, player);
-				if (validMove(b, m)) return true;
-			}
-		}
-		return false;
+		return legalMoves(b, player) != 0;
 	}
 	
 	public boolean gameOver(char[][] b) {
-		return (!anyMoves(b, 'x') && !anyMoves(b, 'o'));
+		if (b != board) return (!anyMoves(b, 'x') && !anyMoves(b, 'o'));
+		if (passes >= 2) return true;
+		if (anyMoves(b, currentPlayer)) return false;
+		// after a pass the opponent is known to have no moves either
+		if (passes == 1) return true;
+		return !anyMoves(b, getOpponent());
 	}
 	
 	public int terminalValue(char[][] b, char player) {
-		int scorePlayer = 0;
-		int scoreOpponent = 0;
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				if (b[i][j] == 'x') scorePlayer += 1;
-				if (b[i][j] == 'o') scoreOpponent += 1;
-			}
-		}
+		int scorePlayer = Long.bitCount(tiles(b, 'x'));
+		int scoreOpponent = Long.bitCount(tiles(b, 'o'));
 		if (scorePlayer > scoreOpponent) return Integer.MAX_VALUE;
 		else if (scoreOpponent > scorePlayer) return Integer.MIN_VALUE;
 		else return 0;
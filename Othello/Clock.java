@@ -0,0 +1,103 @@
+/**
+ * A game clock for one player: a total time for the whole game plus an increment added after
+ * every move. The clock shares its time out over the moves the player still has to make,
+ * which is taken to be half the empty squares since the players take turns, plus the
+ * increment the move will earn back. A move has a soft limit and a hard limit. An iterative
+ * search does not start another iteration once half the soft limit is used, since the next
+ * one usually takes longer than all the ones before it, and it stops in the middle of an
+ * iteration at the hard limit. A small reserve is never handed out, so a slow last iteration
+ * or a pause in the JVM does not lose the game on time.
+ */
+public class Clock {
+
+	public static final long RESERVE_MILLIS = 50;
+	public static final int HARD_FACTOR = 3;
+	protected long remaining;
+	protected long increment;
+	protected long started;
+	protected int moves;
+	protected boolean flagged;
+
+	/**
+	 * Creates a clock
+	 * @param totalMillis the time for the whole game in milliseconds
+	 * @param incrementMillis the time added after every move in milliseconds
+	 */
+	public Clock(long totalMillis, long incrementMillis) {
+		remaining = totalMillis;
+		increment = incrementMillis;
+	}
+
+	/**
+	 * Gets the time a move should take
+	 * @param empties the number of empty squares on the board
+	 * @return the soft limit in milliseconds
+	 */
+	public long softLimit(int empties) {
+		long movesLeft = Math.max(1, (empties + 1) / 2);
+		long share = available() / movesLeft + increment;
+		return Math.max(1, Math.min(share, hardLimit(empties)));
+	}
+
+	/**
+	 * Gets the time after which a move has to stop searching
+	 * @param empties the number of empty squares on the board
+	 * @return the hard limit in milliseconds
+	 */
+	public long hardLimit(int empties) {
+		long movesLeft = Math.max(1, (empties + 1) / 2);
+		long share = available() / movesLeft + increment;
+		return Math.max(1, Math.min(HARD_FACTOR * share, available() / 2 + increment));
+	}
+
+	/**
+	 * Gets the time that can be handed out, keeping the reserve back
+	 * @return the time in milliseconds
+	 */
+	public long available() {
+		return Math.max(0, remaining - RESERVE_MILLIS);
+	}
+
+	/**
+	 * Starts the clock for a move
+	 */
+	public void start() {
+		started = System.nanoTime();
+	}
+
+	/**
+	 * Stops the clock after a move, taking the time used and adding the increment
+	 * @return the time the move took in milliseconds
+	 */
+	public long stop() {
+		long used = (System.nanoTime() - started) / 1000000;
+		if (used > remaining) flagged = true;
+		remaining += increment - used;
+		moves++;
+		return used;
+	}
+
+	/**
+	 * Gets the time left on the clock
+	 * @return the time in milliseconds
+	 */
+	public long getRemaining() {
+		return remaining;
+	}
+
+	/**
+	 * Checks if the player has run out of time
+	 * @return if a move ever took longer than the time left before it
+	 */
+	public boolean flagged() {
+		return flagged;
+	}
+
+	/**
+	 * Gets the number of moves the clock has timed
+	 * @return the number of moves
+	 */
+	public int getMoves() {
+		return moves;
+	}
+}
@@ -0,0 +1,469 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Solves Othello endgames exactly with alpha-beta negamax on bitboards. A score is the final
+ * disc difference for the player to move, with the empty squares of a finished game going
+ * to the winner. Moves far from the end are searched fastest-first, fewest replies for the
+ * opponent first, with the best move from the hash table ahead of them. Close to the end
+ * they are ordered by parity: moves in quadrants with an odd number of empty squares come
+ * first, so the player gets the last move in that region. The last three empty squares are
+ * played by routines of their own that need no move generation or ordering. Every move after
+ * the first is searched with a null window first, and searched again only if it is better.
+ *
+ * The solver keeps its own hash table of exact positions with a lower and upper bound on
+ * each score, used only where enough squares are empty to be worth the lookup. It only reads
+ * the tiles of a Board, not its search state, so the table stays valid from move to move.
+ * A solve can be given a deadline: the clock is read every 1024 positions, and once it has
+ * passed every position returns at once without touching the table, so the entries already
+ * stored are still exact when the solve is given up.
+ */
+public class Endgame {
+
+	public static final int INFINITY = 127;
+	public static final int TABLE_EMPTIES = 7;
+	public static final int FASTEST_FIRST_EMPTIES = 7;
+	protected int size;
+	protected long inside;
+	protected long[] quadrants = new long[4];
+	protected long corners;
+	protected long[][] lines = new long[4][];
+	protected int cells;
+	protected long[] players;
+	protected long[] opponents;
+	protected byte[] lowers;
+	protected byte[] uppers;
+	protected byte[] bestMoves;
+	protected int bits;
+	protected int[][] moveLists = new int[65][64];
+	protected int[][] moveKeys = new int[65][64];
+	protected long nodes;
+	protected long nanos;
+	protected int score;
+	protected long deadline = Long.MAX_VALUE;
+	protected boolean timeUp;
+
+	/**
+	 * Creates a solver with a hash table of 2^bits positions
+	 * @param bits the log2 of the table size
+	 */
+	public Endgame(int bits) {
+		this.bits = bits;
+		players = new long[1 << bits];
+		opponents = new long[1 << bits];
+		lowers = new byte[1 << bits];
+		uppers = new byte[1 << bits];
+		bestMoves = new byte[1 << bits];
+	}
+
+	public Endgame() {
+		this(20);
+	}
+
+	/**
+	 * Sets up the solver for the size of a board, emptying the table if the size changed
+	 * @param b the board
+	 */
+	public void prepare(Board b) {
+		if (size == b.size) return;
+		size = b.size;
+		inside = b.inside;
+		int half = size / 2;
+		corners = Bitboard.bit(0, 0) | Bitboard.bit(0, size - 1) | Bitboard.bit(size - 1, 0) |
+				Bitboard.bit(size - 1, size - 1);
+		for (int q = 0; q < 4; q++) {
+			quadrants[q] = 0;
+			for (int x = 0; x < size; x++) {
+				for (int y = 0; y < size; y++) {
+					if ((x < half ? 0 : 1) + (y < half ? 0 : 2) == q) quadrants[q] |= Bitboard.bit(x, y);
+				}
+			}
+		}
+		int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+		for (int d = 0; d < 4; d++) {
+			List<Long> found = new ArrayList<Long>();
+			for (int x = 0; x < size; x++) {
+				for (int y = 0; y < size; y++) {
+					// a line starts on a square whose previous square is off the board
+					int px = x - directions[d][0];
+					int py = y - directions[d][1];
+					if (px >= 0 && px < size && py >= 0 && py < size) continue;
+					long line = 0;
+					for (int i = x, j = y; i >= 0 && i < size && j >= 0 && j < size; i += directions[d][0], j += directions[d][1]) {
+						line |= Bitboard.bit(i, j);
+					}
+					found.add(line);
+				}
+			}
+			lines[d] = new long[found.size()];
+			for (int i = 0; i < lines[d].length; i++) lines[d][i] = found.get(i);
+		}
+		cells = size * size;
+		Arrays.fill(players, 0);
+		Arrays.fill(opponents, 0);
+	}
+
+	/**
+	 * Scores a finished game
+	 * @param p the tiles of the player to move
+	 * @param o the tiles of the opponent
+	 * @param empties the number of empty squares, which go to the winner
+	 * @return the disc difference for the player to move
+	 */
+	public int finalScore(long p, long o, int empties) {
+		int diff = Long.bitCount(p) - Long.bitCount(o);
+		if (diff > 0) return diff + empties;
+		else if (diff < 0) return diff - empties;
+		else return 0;
+	}
+
+	/**
+	 * Gets the slot of a position in the hash table
+	 * @param p the tiles of the player to move
+	 * @param o the tiles of the opponent
+	 * @return the slot
+	 */
+	public int slot(long p, long o) {
+		long h = p * 0x9E3779B97F4A7C15L ^ o * 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		return (int) ((h * 0xBF58476D1CE4E5B9L) >>> (64 - bits));
+	}
+
+	/**
+	 * Gets the parity of the quadrant of a square
+	 * @param empty the empty squares
+	 * @param square the square
+	 * @return 1 if the square's quadrant has an odd number of empty squares, or else 0
+	 */
+	public int parity(long empty, int square) {
+		for (long q : quadrants) {
+			if ((q & (1L << square)) != 0) return Long.bitCount(q & empty) & 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Finds tiles that can never be flipped: tiles on lines that are full in all four
+	 * directions, and tiles joined to a corner along an edge by tiles of the same player
+	 * @param own the tiles of the player
+	 * @param filled the tiles of both players
+	 * @return some of the stable tiles, but not always all of them
+	 */
+	public long stable(long own, long filled) {
+		long stable = own;
+		for (long[] direction : lines) {
+			long full = 0;
+			for (long line : direction) {
+				if ((line & ~filled) == 0) full |= line;
+			}
+			stable &= full;
+		}
+		for (int c = 0; c < 4; c++) {
+			int x = (c & 1) == 0 ? 0 : size - 1;
+			int y = (c & 2) == 0 ? 0 : size - 1;
+			if ((own & Bitboard.bit(x, y)) == 0) continue;
+			int dx = x == 0 ? 1 : -1;
+			int dy = y == 0 ? 1 : -1;
+			for (int i = x; i >= 0 && i < size && (own & Bitboard.bit(i, y)) != 0; i += dx) stable |= Bitboard.bit(i, y);
+			for (int j = y; j >= 0 && j < size && (own & Bitboard.bit(x, j)) != 0; j += dy) stable |= Bitboard.bit(x, j);
+		}
+		return stable;
+	}
+
+	/**
+	 * Solves a position with a window
+	 * @param p the tiles of the player to move
+	 * @param o the tiles of the opponent
+	 * @param alpha the lower bound of the window
+	 * @param beta the upper bound of the window
+	 * @param empties the number of empty squares
+	 * @return the score, exact if it is inside the window, or else a bound on the side it fell
+	 */
+	public int negamax(long p, long o, int alpha, int beta, int empties) {
+		long empty = inside & ~(p | o);
+		if (empties <= 3) {
+			int s1 = Long.numberOfTrailingZeros(empty);
+			if (empties == 0) return finalScore(p, o, 0);
+			if (empties == 1) return last1(p, o, s1);
+			long rest = empty & (empty - 1);
+			int s2 = Long.numberOfTrailingZeros(rest);
+			if (empties == 2) return last2(p, o, alpha, beta, s1, s2);
+			int s3 = Long.numberOfTrailingZeros(rest & (rest - 1));
+			return last3(p, o, alpha, beta, s1, s2, s3);
+		}
+		nodes++;
+		if (!timeUp && (nodes & 1023) == 0 && System.nanoTime() > deadline) timeUp = true;
+		if (timeUp) return 0;
+		long moves = Bitboard.moves(p, o, empty);
+		if (moves == 0) {
+			if (Bitboard.moves(o, p, empty) == 0) return finalScore(p, o, empties);
+			return -negamax(o, p, -beta, -alpha, empties);
+		}
+
+		int slot = 0;
+		int hint = -1;
+		if (empties > TABLE_EMPTIES) {
+			// the player cannot win the opponent's stable tiles
+			int limit = cells - 2 * Long.bitCount(stable(o, p | o));
+			if (limit <= alpha) return limit;
+			slot = slot(p, o);
+			if (players[slot] == p && opponents[slot] == o) {
+				int lower = lowers[slot];
+				int upper = uppers[slot];
+				if (lower >= beta) return lower;
+				if (upper <= alpha) return upper;
+				if (lower == upper) return lower;
+				alpha = Math.max(alpha, lower);
+				beta = Math.min(beta, upper);
+				hint = bestMoves[slot];
+			}
+		}
+
+		int[] list = moveLists[empties];
+		int[] keys = moveKeys[empties];
+		int n = 0;
+		for (; moves != 0; moves &= moves - 1) {
+			int square = Long.numberOfTrailingZeros(moves);
+			int key;
+			if (square == hint) key = Integer.MIN_VALUE;
+			else if (empties > FASTEST_FIRST_EMPTIES) {
+				long bit = 1L << square;
+				long f = Bitboard.flips(p, o, bit);
+				long replies = Bitboard.moves(o & ~f, p | bit | f, empty & ~bit);
+				key = 2 * (Long.bitCount(replies) + Long.bitCount(replies & corners)) - parity(empty, square);
+			}
+			else key = -parity(empty, square);
+			int i = n++;
+			for (; i > 0 && keys[i - 1] > key; i--) {
+				list[i] = list[i - 1];
+				keys[i] = keys[i - 1];
+			}
+			list[i] = square;
+			keys[i] = key;
+		}
+
+		int start = alpha;
+		int best = -INFINITY;
+		int bestSquare = list[0];
+		for (int i = 0; i < n; i++) {
+			long bit = 1L << list[i];
+			long f = Bitboard.flips(p, o, bit);
+			int a = Math.max(alpha, best);
+			int v;
+			if (i == 0) v = -negamax(o & ~f, p | bit | f, -beta, -a, empties - 1);
+			else {
+				// the first move is usually best, so the rest only have to be shown worse
+				v = -negamax(o & ~f, p | bit | f, -a - 1, -a, empties - 1);
+				if (v > a && v < beta) v = -negamax(o & ~f, p | bit | f, -beta, -v, empties - 1);
+			}
+			if (timeUp) return 0;
+			if (v > best) {
+				best = v;
+				bestSquare = list[i];
+				if (v >= beta) break;
+			}
+		}
+
+		if (empties > TABLE_EMPTIES) {
+			players[slot] = p;
+			opponents[slot] = o;
+			lowers[slot] = (byte) (best > start ? best : -INFINITY);
+			uppers[slot] = (byte) (best < beta ? best : INFINITY);
+			bestMoves[slot] = (byte) bestSquare;
+		}
+		return best;
+	}
+
+	/**
+	 * Solves a position with one empty square
+	 * @param p the tiles of the player to move
+	 * @param o the tiles of the opponent
+	 * @param square the empty square
+	 * @return the score
+	 */
+	public int last1(long p, long o, int square) {
+		nodes++;
+		long bit = 1L << square;
+		long f = Bitboard.flips(p, o, bit);
+		if (f != 0) return Long.bitCount(p | f) + 1 - Long.bitCount(o & ~f);
+		f = Bitboard.flips(o, p, bit);
+		if (f != 0) return Long.bitCount(p & ~f) - Long.bitCount(o | f) - 1;
+		return finalScore(p, o, 1);
+	}
+
+	/**
+	 * Solves a position with two empty squares
+	 * @param p the tiles of the player to move
+	 * @param o the tiles of the opponent
+	 * @param alpha the lower bound of the window
+	 * @param beta the upper bound of the window
+	 * @param s1 an empty square
+	 * @param s2 the other empty square
+	 * @return the score, or a bound on it outside the window
+	 */
+	public int last2(long p, long o, int alpha, int beta, int s1, int s2) {
+		nodes++;
+		int best = -INFINITY;
+		long bit = 1L << s1;
+		long f = Bitboard.flips(p, o, bit);
+		if (f != 0) {
+			best = -last1(o & ~f, p | bit | f, s2);
+			if (best >= beta) return best;
+		}
+		bit = 1L << s2;
+		f = Bitboard.flips(p, o, bit);
+		if (f != 0) best = Math.max(best, -last1(o & ~f, p | bit | f, s1));
+		if (best > -INFINITY) return best;
+		if (Bitboard.flips(o, p, 1L << s1) != 0 || Bitboard.flips(o, p, 1L << s2) != 0) {
+			return -last2(o, p, -beta, -alpha, s1, s2);
+		}
+		return finalScore(p, o, 2);
+	}
+
+	/**
+	 * Solves a position with three empty squares, trying the square alone in its quadrant
+	 * first
+	 * @param p the tiles of the player to move
+	 * @param o the tiles of the opponent
+	 * @param alpha the lower bound of the window
+	 * @param beta the upper bound of the window
+	 * @param s1 an empty square
+	 * @param s2 another empty square
+	 * @param s3 the last empty square
+	 * @return the score, or a bound on it outside the window
+	 */
+	public int last3(long p, long o, int alpha, int beta, int s1, int s2, int s3) {
+		nodes++;
+		long empty = (1L << s1) | (1L << s2) | (1L << s3);
+		if (parity(empty, s1) == 0) {
+			if (parity(empty, s2) == 1) {
+				int t = s1;
+				s1 = s2;
+				s2 = t;
+			}
+			else if (parity(empty, s3) == 1) {
+				int t = s1;
+				s1 = s3;
+				s3 = t;
+			}
+		}
+		int best = -INFINITY;
+		int[] squares = {s1, s2, s3};
+		for (int i = 0; i < 3; i++) {
+			long bit = 1L << squares[i];
+			long f = Bitboard.flips(p, o, bit);
+			if (f == 0) continue;
+			int a = squares[i == 0 ? 1 : 0];
+			int c = squares[i == 2 ? 1 : 2];
+			int v = -last2(o & ~f, p | bit | f, -beta, -Math.max(alpha, best), a, c);
+			if (v > best) {
+				best = v;
+				if (v >= beta) return best;
+			}
+		}
+		if (best > -INFINITY) return best;
+		for (int s : squares) {
+			if (Bitboard.flips(o, p, 1L << s) != 0) return -last3(o, p, -beta, -alpha, s1, s2, s3);
+		}
+		return finalScore(p, o, 3);
+	}
+
+	/**
+	 * Finds the best move of a board and its exact score, which getScore returns after
+	 * @param b the board
+	 * @return the move, or a skip move if the player has no moves
+	 */
+	public Move bestMove(Board b) {
+		return bestMove(b, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Finds the best move of a board and its exact score, giving up at a deadline
+	 * @param b the board
+	 * @param deadline the System.nanoTime() to stop at, or Long.MAX_VALUE
+	 * @return the move, a skip move if the player has no moves, or null if time ran out
+	 */
+	public Move bestMove(Board b, long deadline) {
+		prepare(b);
+		this.deadline = deadline;
+		timeUp = false;
+		long start = System.nanoTime();
+		char player = b.getPlayer();
+		long p = b.tiles(b.board, player);
+		long o = b.tiles(b.board, b.getOpponent());
+		long empty = inside & ~(p | o);
+		int empties = Long.bitCount(empty);
+		long moves = b.legalMoves(b.board, player);
+		Move best = new Move(player);
+		if (moves == 0) {
+			score = negamax(p, o, -INFINITY, INFINITY, empties);
+		}
+		else {
+			score = -INFINITY;
+			for (; moves != 0; moves &= moves - 1) {
+				int square = Long.numberOfTrailingZeros(moves);
+				long bit = 1L << square;
+				long f = Bitboard.flips(p, o, bit);
+				int v;
+				if (score == -INFINITY) v = -negamax(o & ~f, p | bit | f, -INFINITY, INFINITY, empties - 1);
+				else {
+					v = -negamax(o & ~f, p | bit | f, -score - 1, -score, empties - 1);
+					if (v > score) v = -negamax(o & ~f, p | bit | f, -INFINITY, -v, empties - 1);
+				}
+				if (timeUp) break;
+				if (v > score) {
+					score = v;
+					best = new Move(square >>> 3, square & 7, player);
+				}
+			}
+		}
+		nanos += System.nanoTime() - start;
+		this.deadline = Long.MAX_VALUE;
+		if (timeUp) return null;
+		return best;
+	}
+
+	/**
+	 * Solves a board exactly
+	 * @param b the board
+	 * @return the final disc difference for the player to move with perfect play
+	 */
+	public int solve(Board b) {
+		bestMove(b);
+		return score;
+	}
+
+	/**
+	 * Gets the score of the last position solved
+	 * @return the final disc difference for the player who was to move
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Gets the number of positions searched since the stats were reset
+	 * @return the number of positions
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of positions searched per second since the stats were reset
+	 * @return the number of positions per second
+	 */
+	public long nodesPerSecond() {
+		if (nanos == 0) return 0;
+		return nodes * 1000000000L / nanos;
+	}
+
+	/**
+	 * Resets the position count and time
+	 */
+	public void resetStats() {
+		nodes = 0;
+		nanos = 0;
+	}
+}
@@ -0,0 +1,360 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pattern evaluation for Othello. The board is covered by patterns: each edge with its two
+ * X squares, the 3x3 corners, the 2x5 corner regions and the diagonals of four or more
+ * squares, in every rotation and reflection. Each pattern reads its squares as a base-3
+ * number, 0 for empty, 1 for x and 2 for o, and looks its score up in a table of weights
+ * shared by every copy of the pattern. A board keeps the index of every pattern and updates
+ * them as discs are placed and flipped, so a score is one table lookup per pattern.
+ *
+ * The weights of a board size are read at startup from the file othello-N.weights in the
+ * directory given by the othello.weights system property, or weights if it is not set. If
+ * there is no file the weights are built from square values, with the penalty for the
+ * squares next to a corner dropped once the corner is taken. Each square's value is split
+ * evenly between the patterns that cover it, after scaling every value by the least common
+ * multiple of those counts so the weights stay exact. Scores are for x.
+ *
+ * Usage: java Evaluation size file, to write the built-in weights of a size to a file
+ */
+public final class Evaluation {
+
+	public static final String DIRECTORY = System.getProperty("othello.weights", "weights");
+	protected static final Evaluation[] EVALUATIONS = new Evaluation[9];
+	protected int size;
+	protected List<String> names = new ArrayList<String>();
+	protected List<int[]> shapes = new ArrayList<int[]>();
+	protected int[][] weights;
+	protected int[] types;
+	protected int[][] instances;
+	protected int[][] squareInstances = new int[64][];
+	protected int[][] squarePowers = new int[64][];
+	protected String source;
+	protected int scale;
+
+	/**
+	 * Gets the evaluation of a board size, reading its weights the first time
+	 * @param size the width of the board
+	 * @return the evaluation
+	 */
+	public static synchronized Evaluation forSize(int size) {
+		if (EVALUATIONS[size] == null) {
+			Evaluation e = new Evaluation(size);
+			Path path = Paths.get(DIRECTORY, "othello-" + size + ".weights");
+			if (Files.isReadable(path)) {
+				try {
+					e.load(path);
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException("Could not read weights from " + path, ex);
+				}
+			}
+			EVALUATIONS[size] = e;
+		}
+		return EVALUATIONS[size];
+	}
+
+	/**
+	 * Creates the patterns of a board size with the built-in weights
+	 * @param size the width of the board
+	 */
+	public Evaluation(int size) {
+		this.size = size;
+		int[][] edge = new int[size + 2][];
+		for (int x = 0; x < size; x++) edge[x] = new int[] {x, 0};
+		edge[size] = new int[] {1, 1};
+		edge[size + 1] = new int[] {size - 2, 1};
+		addShape("edge+2X", edge);
+		int corner = Math.min(3, size);
+		int[][] block = new int[corner * corner][];
+		for (int i = 0; i < block.length; i++) block[i] = new int[] {i % corner, i / corner};
+		addShape("corner3x3", block);
+		int length = Math.min(5, size);
+		int[][] region = new int[2 * length][];
+		for (int i = 0; i < region.length; i++) region[i] = new int[] {i % length, i / length};
+		addShape("corner2x5", region);
+		for (int k = size; k >= 4; k--) {
+			int[][] diagonal = new int[k][];
+			for (int i = 0; i < k; i++) diagonal[i] = new int[] {i, i + size - k};
+			addShape("diagonal" + k, diagonal);
+		}
+		findInstances();
+		scale = 1;
+		for (int square = 0; square < 64; square++) {
+			int n = squareInstances[square].length;
+			if (n > 0) scale = scale / gcd(scale, n) * n;
+		}
+		weights = new int[shapes.size()][];
+		for (int t = 0; t < weights.length; t++) weights[t] = defaultWeights(t);
+		source = "built-in weights";
+	}
+
+	/**
+	 * Adds a pattern
+	 * @param name the name of the pattern
+	 * @param squares the (x, y) of its squares, in the order of their base-3 digits
+	 */
+	public void addShape(String name, int[][] squares) {
+		int[] shape = new int[squares.length];
+		for (int i = 0; i < squares.length; i++) shape[i] = squares[i][0] * 8 + squares[i][1];
+		names.add(name);
+		shapes.add(shape);
+	}
+
+	/**
+	 * Places every pattern in every symmetry that covers a different set of squares, and
+	 * lists the patterns each square is in with the power of 3 of its digit
+	 */
+	public void findInstances() {
+		List<Integer> typeList = new ArrayList<Integer>();
+		List<int[]> instanceList = new ArrayList<int[]>();
+		for (int t = 0; t < shapes.size(); t++) {
+			List<Long> seen = new ArrayList<Long>();
+			for (int symmetry = 0; symmetry < 8; symmetry++) {
+				int[] squares = new int[shapes.get(t).length];
+				long set = 0;
+				for (int i = 0; i < squares.length; i++) {
+					squares[i] = Bitboard.transform(symmetry, shapes.get(t)[i], size);
+					set |= 1L << squares[i];
+				}
+				if (seen.contains(set)) continue;
+				seen.add(set);
+				typeList.add(t);
+				instanceList.add(squares);
+			}
+		}
+		types = new int[typeList.size()];
+		instances = instanceList.toArray(new int[0][]);
+		int[] counts = new int[64];
+		for (int i = 0; i < instances.length; i++) {
+			types[i] = typeList.get(i);
+			for (int square : instances[i]) counts[square]++;
+		}
+		for (int square = 0; square < 64; square++) {
+			squareInstances[square] = new int[counts[square]];
+			squarePowers[square] = new int[counts[square]];
+			counts[square] = 0;
+		}
+		for (int i = 0; i < instances.length; i++) {
+			int power = 1;
+			for (int square : instances[i]) {
+				squareInstances[square][counts[square]] = i;
+				squarePowers[square][counts[square]++] = power;
+				power *= 3;
+			}
+		}
+	}
+
+	/**
+	 * Gets the value of a disc of x on a square
+	 * @param x the column
+	 * @param y the row
+	 * @param cornerTaken if the nearest corner has a disc
+	 * @return the value
+	 */
+	public int squareValue(int x, int y, boolean cornerTaken) {
+		int cx = Math.min(x, size - 1 - x);
+		int cy = Math.min(y, size - 1 - y);
+		if (cx == 0 && cy == 0) return 40;
+		if (cx + cy == 1) return cornerTaken ? 4 : -8;
+		if (cx == 1 && cy == 1) return cornerTaken ? 2 : -16;
+		if (cx == 0 || cy == 0) return 2;
+		if (cx == 1 || cy == 1) return -1;
+		return 0;
+	}
+
+	/**
+	 * Builds the weights of a pattern from square values, splitting each square's value
+	 * between the patterns that cover it
+	 * @param type the pattern
+	 * @return the weights, one for each base-3 index
+	 */
+	public int[] defaultWeights(int type) {
+		int[] shape = shapes.get(type);
+		int count = 1;
+		for (int i = 0; i < shape.length; i++) count *= 3;
+		int[] w = new int[count];
+		int[] digits = new int[shape.length];
+		for (int index = 0; index < count; index++) {
+			for (int i = 0, n = index; i < shape.length; i++, n /= 3) digits[i] = n % 3;
+			int value = 0;
+			for (int i = 0; i < shape.length; i++) {
+				if (digits[i] == 0) continue;
+				int x = shape[i] >>> 3;
+				int y = shape[i] & 7;
+				int corner = (x < size / 2 ? 0 : size - 1) * 8 + (y < size / 2 ? 0 : size - 1);
+				boolean taken = false;
+				for (int j = 0; j < shape.length; j++) {
+					if (shape[j] == corner && digits[j] != 0) taken = true;
+				}
+				int v = squareValue(x, y, taken) * (scale / squareInstances[shape[i]].length);
+				value += digits[i] == 1 ? v : -v;
+			}
+			w[index] = value;
+		}
+		return w;
+	}
+
+	/**
+	 * Gets the greatest common divisor of two numbers
+	 * @param a a number
+	 * @param b another number
+	 * @return the greatest common divisor
+	 */
+	public static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	/**
+	 * Computes the index of every pattern from scratch
+	 * @param xBits the tiles of x
+	 * @param oBits the tiles of o
+	 * @return the indices
+	 */
+	public int[] indices(long xBits, long oBits) {
+		int[] indices = new int[instances.length];
+		for (long tiles = xBits | oBits; tiles != 0; tiles &= tiles - 1) {
+			int square = Long.numberOfTrailingZeros(tiles);
+			place(indices, square, (xBits & (1L << square)) != 0 ? 'x' : 'o');
+		}
+		return indices;
+	}
+
+	/**
+	 * Updates the indices for a disc placed on an empty square
+	 * @param indices the indices
+	 * @param square the square
+	 * @param player the player placing the disc
+	 */
+	public void place(int[] indices, int square, char player) {
+		int digit = player == 'x' ? 1 : 2;
+		int[] covering = squareInstances[square];
+		int[] powers = squarePowers[square];
+		for (int i = 0; i < covering.length; i++) indices[covering[i]] += digit * powers[i];
+	}
+
+	/**
+	 * Updates the indices for a disc taken back off a square, undoing place
+	 * @param indices the indices
+	 * @param square the square
+	 * @param player the player who placed the disc
+	 */
+	public void remove(int[] indices, int square, char player) {
+		int digit = player == 'x' ? 1 : 2;
+		int[] covering = squareInstances[square];
+		int[] powers = squarePowers[square];
+		for (int i = 0; i < covering.length; i++) indices[covering[i]] -= digit * powers[i];
+	}
+
+	/**
+	 * Updates the indices for a disc flipped to a player
+	 * @param indices the indices
+	 * @param square the square
+	 * @param player the player the disc now belongs to
+	 */
+	public void flip(int[] indices, int square, char player) {
+		int sign = player == 'x' ? -1 : 1;
+		int[] covering = squareInstances[square];
+		int[] powers = squarePowers[square];
+		for (int i = 0; i < covering.length; i++) indices[covering[i]] += sign * powers[i];
+	}
+
+	/**
+	 * Scores a position
+	 * @param indices the indices of the position
+	 * @return the score for x
+	 */
+	public int score(int[] indices) {
+		int score = 0;
+		for (int i = 0; i < indices.length; i++) score += weights[types[i]][indices[i]];
+		return score;
+	}
+
+	/**
+	 * Reads weights from a file: for each pattern a line with its name and number of
+	 * squares, then a line with its 3^n weights. Lines starting with # are skipped
+	 * @param path the file
+	 * @throws IOException if the file cannot be read or does not fit these patterns
+	 */
+	public void load(Path path) throws IOException {
+		int[][] loaded = new int[shapes.size()][];
+		try (BufferedReader in = Files.newBufferedReader(path)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] header = line.split("\\s+");
+				int type = names.indexOf(header[0]);
+				if (type < 0 || header.length != 2 || Integer.parseInt(header[1]) != shapes.get(type).length) {
+					throw new IOException("Unknown pattern " + line + " for a " + size + "x" + size + " board");
+				}
+				String values = in.readLine();
+				String[] tokens = values == null ? new String[0] : values.trim().split("\\s+");
+				if (tokens.length != weights[type].length) {
+					throw new IOException("Expected " + weights[type].length + " weights for " + header[0]);
+				}
+				loaded[type] = new int[tokens.length];
+				for (int i = 0; i < tokens.length; i++) loaded[type][i] = Integer.parseInt(tokens[i]);
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Bad weight in " + path, e);
+		}
+		for (int t = 0; t < loaded.length; t++) {
+			if (loaded[t] == null) throw new IOException("No weights for " + names.get(t) + " in " + path);
+		}
+		weights = loaded;
+		source = path.toString();
+	}
+
+	/**
+	 * Writes the weights to a file that load reads
+	 * @param path the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path path) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+			out.println("# Othello pattern weights for " + size + "x" + size + ", scores for x");
+			for (int t = 0; t < weights.length; t++) {
+				out.println(names.get(t) + " " + shapes.get(t).length);
+				StringBuilder s = new StringBuilder();
+				for (int i = 0; i < weights[t].length; i++) {
+					if (i > 0) s.append(' ');
+					s.append(weights[t][i]);
+				}
+				out.println(s);
+			}
+		}
+	}
+
+	/**
+	 * Gets what one point of square value is worth in a score of the built-in weights
+	 * @return the scale of the square values
+	 */
+	public int getScale() {
+		return scale;
+	}
+
+	/**
+	 * Gets where the weights came from
+	 * @return the file, or "built-in weights"
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: java Evaluation size file");
+			return;
+		}
+		new Evaluation(Integer.parseInt(args[0])).save(Paths.get(args[1]));
+	}
+}
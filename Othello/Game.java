@@ -1,14 +1,18 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Game {
 	
-	protected int boardSize, opponent;
+	protected int boardSize, opponent, time, increment;
 	protected char color;
 	public static Scanner scan;
 	
 	public Game() {
 		boardSize = 0;
 		opponent = 0;
+		time = 0;
 		color = ' ';
 	}
 	
@@ -29,16 +33,18 @@ public class Game {
 	}
 	
 	public void getOpponent() {
-		while (opponent < 1 || opponent > 4) {
+		while (opponent < 1 || opponent > 6) {
 			System.out.println("Choose your opponent:");
 			System.out.println("1. An agent that plays randomly");
 			System.out.println("2. An agent that uses MINIMAX");
 			System.out.println("3. An agent that uses MINIMAX with alpha-beta pruning");
 			System.out.println("4. An agent that uses H-MINIMAX with a fixed depth cutoff and"
 					+ " alpha-beta pruning");
+			System.out.println("5. An agent that uses Monte Carlo tree search to a time limit");
+			System.out.println("6. An agent that uses H-MINIMAX with iterative deepening on a game clock");
 			System.out.print("Your choice? ");
 			opponent = scan.nextInt();
-			if (opponent < 1 || opponent > 4) {
+			if (opponent < 1 || opponent > 6) {
 				System.out.println("Invalid option. Try again.");
 			}
 			else {
@@ -47,6 +53,28 @@ public class Game {
 		}
 	}
 	
+	public void getTime() {
+		while (time < 1) {
+			System.out.print("Milliseconds per move? ");
+			time = scan.nextInt();
+			if (time < 1) System.out.println("Invalid option. Try again.");
+		}
+	}
+	
+	public void getClock() {
+		while (time < 1) {
+			System.out.print("Seconds for the game? ");
+			time = scan.nextInt() * 1000;
+			if (time < 1) System.out.println("Invalid option. Try again.");
+		}
+		increment = -1;
+		while (increment < 0) {
+			System.out.print("Seconds added per move? ");
+			increment = scan.nextInt() * 1000;
+			if (increment < 0) System.out.println("Invalid option. Try again.");
+		}
+	}
+	
 	public void getColor() {
 		while (color != 'x' && color != 'o') {
 			System.out.print("Do you want to play DARK (x) or LIGHT (o)? ");
@@ -63,10 +91,29 @@ public class Game {
 	public void setup() {
 		System.out.println("Othello by Elana Chen-Jones");
 		getBoardSize();
+		System.out.println("Evaluation: " + Evaluation.forSize(boardSize).getSource());
+		if (Search.PROBCUT > 0) System.out.println("ProbCut: " + ProbCut.forSize(boardSize).getSource());
+		System.out.println();
 		getOpponent();
+		if (opponent == 5) getTime();
+		else if (opponent == 6) getClock();
 		getColor();
 	}
 	
+	// the book is played by the h-minimax agents and learns from every game they finish
+	public OpeningBook openBook() {
+		if (opponent != 4 && opponent != 6) return null;
+		try {
+			OpeningBook book = OpeningBook.forSize(boardSize);
+			System.out.println("Opening book: " + book.getSource() + "\n");
+			return book;
+		}
+		catch (IOException e) {
+			System.out.println("Could not open the opening book: " + e.getMessage() + "\n");
+			return null;
+		}
+	}
+	
 	public Board playRandom(Board b) {
 		return b;
 	}
@@ -145,10 +192,20 @@ public class Game {
 		Game g = new Game();
 		scan = new Scanner(System.in);
 		g.setup();
+		OpeningBook book = g.openBook();
+		List<Move> moves = new ArrayList<Move>();
 		Board b = new Board(g.boardSize);
 		b.newBoard();
 		b.printBoard(0);
+		MonteCarloSearch mc = null;
+		if (g.opponent == 5) {
+			mc = new MonteCarloSearch(Runtime.getRuntime().availableProcessors());
+			mc.setTime(g.time);
+		}
+		Clock clock = g.opponent == 6 ? new Clock(g.time, g.increment) : null;
 		
+		Search s = new Search();
+		s.setThreads(Runtime.getRuntime().availableProcessors());
 		Move m;
 		while (!b.gameOver(b.board)) {
 			if (!b.anyMoves(b.board, b.getPlayer())) {
@@ -162,12 +219,34 @@ public class Game {
 				} while (!b.validMove(b.board, m));
 			}
 			else {
-				Search s = new Search();
-				if (g.opponent == 1) m = s.random(b);
+				m = book == null ? null : book.lookup(b);
+				if (m != null) System.out.println("Book move");
+				else if (g.opponent == 1) m = s.random(b);
 				else if (g.opponent == 2) m = s.minimax(b);
 				else if (g.opponent == 3) m = s.abMinimax(b);
-				else m = s.hMinimax(b, 7);
+				else if (g.opponent == 4) {
+					m = s.hMinimax(b, 7);
+					Endgame e = s.getEndgame();
+					if (e != null && e.getNodes() > 0) {
+						System.out.println("Solved: final score " + e.getScore() + ", " + e.getNodes() +
+								" positions, " + e.nodesPerSecond() + " positions/s");
+						e.resetStats();
+					}
+				}
+				else if (g.opponent == 6) {
+					m = s.timedHMinimax(b, clock);
+					System.out.println("Clock: " + clock.getRemaining() / 1000.0 + " s left");
+				}
+				else {
+					m = mc.search(b);
+					System.out.println("Playouts: " + mc.getPlayouts() + ", " +
+							mc.playoutsPerSecond() + " playouts/s");
+				}
+				if (SearchStats.ENABLED && g.opponent >= 2 && g.opponent != 5) {
+					System.out.println(s.getStats().summary());
+				}
 			}
+			moves.add(m);
 			b = b.makeMove(b, m);
 			b.printBoard(0);
 			//b.currentPlayer = b.getOpponent();
@@ -178,6 +257,17 @@ public class Game {
 		if (result == Integer.MAX_VALUE) System.out.println("Winner: DARK");
 		else if (result == Integer.MIN_VALUE) System.out.println("Winner: LIGHT");
 		else System.out.println("Winner: TIE");
+		if (book != null) {
+			book.addGame(moves);
+			// the game goes to the book's log, which is merged into the book now and then
+			try {
+				book.append();
+			}
+			catch (IOException e) {
+				System.out.println("Could not save the opening book: " + e.getMessage());
+			}
+		}
+		s.shutdown();
 		scan.close();
 	}
 
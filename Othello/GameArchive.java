@@ -0,0 +1,390 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads archives of 8x8 Othello games in the WTHOR format. A file is a 16-byte header and
+ * then one 68-byte record for each game. The header is little-endian, with the number of
+ * games at byte 4, the year of the games at byte 10 and the board size at byte 12, 0 or 8
+ * for 8x8. A record has the numbers of the tournament, the black player and the white player
+ * as two-byte ints, black's disc count at the end and the theoretical score as bytes, and
+ * then 60 move bytes, each 10 * row + column counting from 1, with 0 after the last move.
+ * Passes are not recorded. Black plays x.
+ *
+ * Games are read lazily in blocks of records with positioned reads of the file, so an
+ * archive of millions of games is read in the memory of one block at a time, and a parallel
+ * stream splits the archive into ranges of records that each read their own blocks. Each
+ * record is replayed through Board as it is read; a record with a move that is not legal is
+ * skipped and counted. The positions of a game are made one at a time as a stream asks for
+ * them.
+ *
+ * Usage: java GameArchive file..., to count the games and positions of archives
+ */
+public class GameArchive implements Closeable {
+
+	public static final int HEADER = 16;
+	public static final int RECORD = 68;
+	public static final int MOVES = 60;
+	public static final int BLOCK = 1024;
+	protected Path path;
+	protected FileChannel channel;
+	protected int games;
+	protected int year;
+	protected LongAdder skipped = new LongAdder();
+
+	/**
+	 * Opens an archive and reads its header
+	 * @param path the file
+	 * @throws IOException if the file cannot be read or is not an archive of 8x8 games
+	 */
+	public GameArchive(Path path) throws IOException {
+		this.path = path;
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			read(header, 0);
+			int size = header.get(12);
+			if (size != 0 && size != 8) throw new IOException(path + " has games on a " + size + "x" + size + " board");
+			long length = channel.size() - HEADER;
+			if (length % RECORD != 0) throw new IOException(path + " is cut short");
+			// the file is trusted over the count in the header, which some tools leave at 0
+			games = (int) (length / RECORD);
+			year = header.getShort(10);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Fills a buffer from a place in the file
+	 * @param buffer the buffer, filled from its position to its limit
+	 * @param position the place in the file
+	 * @throws IOException if the file ends first
+	 */
+	public final void read(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0) throw new EOFException(path + " ended at " + position);
+			position += n;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Gets the number of game records
+	 * @return the number of records, counting any that are skipped
+	 */
+	public int getGames() {
+		return games;
+	}
+
+	/**
+	 * Gets the year of the games, as the header gives it
+	 * @return the year
+	 */
+	public int getYear() {
+		return year;
+	}
+
+	/**
+	 * Gets the number of records skipped so far for a move that is not legal
+	 * @return the number of records
+	 */
+	public long getSkipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * Streams the games of the archive, reading them as the stream is used
+	 * @return the games in the order of the file
+	 */
+	public Stream<Record> games() {
+		return StreamSupport.stream(new Records(0, games), false);
+	}
+
+	/**
+	 * Streams every position of every game, from the start of each game to its end
+	 * @return the positions
+	 */
+	public Stream<Position> positions() {
+		return games().flatMap(Record::positions);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads the records of a range of the file a block at a time, and splits for parallel
+	 * streams by halving the range
+	 */
+	protected class Records implements Spliterator<Record> {
+
+		protected int next;
+		protected int end;
+		protected ByteBuffer block;
+
+		public Records(int next, int end) {
+			this.next = next;
+			this.end = end;
+		}
+
+		public boolean tryAdvance(Consumer<? super Record> action) {
+			while (next < end) {
+				try {
+					if (block == null || !block.hasRemaining()) readBlock();
+				}
+				catch (IOException e) {
+					throw new IllegalStateException("Could not read " + path, e);
+				}
+				Record game = parse(next++);
+				if (game != null) {
+					action.accept(game);
+					return true;
+				}
+				skipped.increment();
+			}
+			return false;
+		}
+
+		public void readBlock() throws IOException {
+			if (block == null) block = ByteBuffer.allocate(BLOCK * RECORD).order(ByteOrder.LITTLE_ENDIAN);
+			block.clear();
+			block.limit(Math.min(BLOCK, end - next) * RECORD);
+			read(block, HEADER + (long) next * RECORD);
+		}
+
+		public Record parse(int index) {
+			Record game = new Record();
+			game.index = index;
+			game.tournament = block.getShort() & 0xFFFF;
+			game.black = block.getShort() & 0xFFFF;
+			game.white = block.getShort() & 0xFFFF;
+			game.score = block.get() & 0xFF;
+			game.theoreticalScore = block.get() & 0xFF;
+			byte[] codes = new byte[MOVES];
+			block.get(codes);
+			return game.replay(codes) ? game : null;
+		}
+
+		public Spliterator<Record> trySplit() {
+			// the records already read stay with this half
+			int from = next + (block == null ? 0 : block.remaining() / RECORD);
+			if (end - from < 2 * BLOCK) return null;
+			int middle = (from + end) >>> 1;
+			Records rest = new Records(middle, end);
+			end = middle;
+			return rest;
+		}
+
+		public long estimateSize() {
+			return end - next;
+		}
+
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/**
+	 * One game of an archive
+	 */
+	public static class Record {
+
+		protected int index;
+		protected int tournament;
+		protected int black;
+		protected int white;
+		protected int score;
+		protected int theoreticalScore;
+		protected List<Move> moves = new ArrayList<Move>(MOVES);
+		protected boolean finished;
+
+		/**
+		 * Replays the move bytes of the record in place on one board, keeping the moves and
+		 * whether the game is over
+		 * @param codes the move bytes
+		 * @return if every move is legal
+		 */
+		public boolean replay(byte[] codes) {
+			Board b = new Board(8);
+			b.newBoard();
+			for (byte code : codes) {
+				if (code == 0) break;
+				int row = code / 10 - 1;
+				int column = code % 10 - 1;
+				if (row < 0 || row >= 8 || column < 0 || column >= 8 || b.gameOver(b.board)) return false;
+				if (!b.anyMoves(b.board, b.getPlayer())) b.play(Move.PASS);
+				int square = column * 8 + row;
+				if ((b.legalMoves(b.board, b.getPlayer()) & (1L << square)) == 0) return false;
+				moves.add(Move.of(square, b.getPlayer()));
+				b.play(square);
+			}
+			finished = b.gameOver(b.board);
+			return true;
+		}
+
+		/**
+		 * Gets the place of the game in the archive
+		 * @return the index of the record
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the moves of the game, without passes
+		 * @return the moves, each with its player
+		 */
+		public List<Move> getMoves() {
+			return moves;
+		}
+
+		/**
+		 * Checks if the game was played to the end rather than stopped by a resignation or
+		 * the clock
+		 * @return if neither player has a move after the last one
+		 */
+		public boolean isFinished() {
+			return finished;
+		}
+
+		/**
+		 * Gets black's disc count at the end, as recorded
+		 * @return the number of discs
+		 */
+		public int getScore() {
+			return score;
+		}
+
+		/**
+		 * Gets black's disc count with perfect play from the number of empty squares the
+		 * header gives
+		 * @return the number of discs
+		 */
+		public int getTheoreticalScore() {
+			return theoreticalScore;
+		}
+
+		/**
+		 * Gets the number of the tournament in the archive's tournament file
+		 * @return the number
+		 */
+		public int getTournament() {
+			return tournament;
+		}
+
+		/**
+		 * Gets the number of the black player in the archive's player file
+		 * @return the number
+		 */
+		public int getBlack() {
+			return black;
+		}
+
+		/**
+		 * Gets the number of the white player in the archive's player file
+		 * @return the number
+		 */
+		public int getWhite() {
+			return white;
+		}
+
+		/**
+		 * Streams the positions of the game, each made from the one before when it is asked for
+		 * @return the positions from the start to the end
+		 */
+		public Stream<Position> positions() {
+			Board b = new Board(8);
+			b.newBoard();
+			return Stream.iterate(new Position(this, b, 0), p -> p != null, Position::next);
+		}
+	}
+
+	/**
+	 * A position of a game, with the move played from it
+	 */
+	public static class Position {
+
+		protected Record game;
+		protected Board board;
+		protected int ply;
+
+		public Position(Record game, Board board, int ply) {
+			this.game = game;
+			this.board = board;
+			this.ply = ply;
+			// a player with no moves is skipped, as in Game
+			if (ply < game.moves.size() && !board.anyMoves(board.board, board.getPlayer())) {
+				board.currentPlayer = board.getOpponent();
+			}
+		}
+
+		public Record getGame() {
+			return game;
+		}
+
+		public Board getBoard() {
+			return board;
+		}
+
+		/**
+		 * Gets the number of moves played before the position, not counting passes
+		 * @return the ply
+		 */
+		public int getPly() {
+			return ply;
+		}
+
+		/**
+		 * Gets the move played from the position
+		 * @return the move, or null at the end of the game
+		 */
+		public Move getMove() {
+			if (ply >= game.moves.size()) return null;
+			return game.moves.get(ply);
+		}
+
+		/**
+		 * Plays the move of the position
+		 * @return the next position, or null at the end of the game
+		 */
+		public Position next() {
+			Move m = getMove();
+			if (m == null) return null;
+			return new Position(game, board.makeMove(board, m), ply + 1);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: java GameArchive file...");
+			return;
+		}
+		for (String file : args) {
+			long start = System.nanoTime();
+			try (GameArchive archive = new GameArchive(Paths.get(file))) {
+				long positions = archive.positions().count();
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%s: %d games from %d, %d skipped, %d positions, %.1f s, %.0f positions/s%n",
+						file, archive.getGames() - archive.getSkipped(), archive.getYear(), archive.getSkipped(),
+						positions, seconds, positions / seconds);
+			}
+		}
+	}
+}
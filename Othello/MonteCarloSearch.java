@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Monte Carlo tree search with UCT. Every iteration walks down the tree to the child with the
+ * best upper confidence bound, adds one new node, plays random moves to the end of the game,
+ * and counts the result in every node it passed. Playouts run on a compact copy of the board,
+ * one bitboard per player, with moves and flips found by Bitboard, and nothing is allocated
+ * but new tree nodes. Each thread grows its own tree from the same root and the root's visit
+ * counts are added up at the end, and each tree is kept for the next move if the new position
+ * is still in it.
+ */
+public class MonteCarloSearch {
+
+	public static final int NONE = -2;
+	public static final int DRAW = -1;
+	public static final int PASS = 64;
+	protected ForkJoinPool pool;
+	protected Worker[] workers;
+	protected int playouts;
+	protected long millis;
+	protected double exploration;
+	protected long lastPlayouts;
+	protected long lastNanos;
+
+	/**
+	 * Creates a search with one tree per thread and a budget of 10000 playouts per move. A
+	 * search with one thread runs on the calling thread and makes no pool, so a game on a
+	 * virtual thread stays on it
+	 * @param threads the number of threads
+	 */
+	public MonteCarloSearch(int threads) {
+		if (threads > 1) pool = new ForkJoinPool(threads);
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) workers[i] = new Worker(0x9E3779B97F4A7C15L * (i + 1));
+		playouts = 10000;
+		exploration = Math.sqrt(2);
+	}
+
+	/**
+	 * Sets the number of playouts per move, shared out between the threads
+	 * @param n the number of playouts
+	 */
+	public void setPlayouts(int n) {
+		playouts = n;
+		millis = 0;
+	}
+
+	/**
+	 * Sets the time per move instead of a number of playouts
+	 * @param millis the time limit in milliseconds
+	 */
+	public void setTime(long millis) {
+		this.millis = millis;
+		playouts = 0;
+	}
+
+	/**
+	 * Sets the weight of exploring moves with few visits against playing moves that have won
+	 * @param c the exploration constant
+	 */
+	public void setExploration(double c) {
+		exploration = c;
+	}
+
+	/**
+	 * Gets the number of threads searching
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return workers.length;
+	}
+
+	/**
+	 * Shuts down the threads
+	 */
+	public void shutdown() {
+		if (pool != null) pool.shutdown();
+	}
+
+	/**
+	 * Finds a move by growing every thread's tree until the budget runs out, then playing the
+	 * move visited most across all the trees
+	 * @param b the board, which is not changed
+	 * @return the move, or a skip move if the player has no moves
+	 */
+	public Move search(Board b) {
+		long start = System.nanoTime();
+		long deadline = millis > 0 ? start + millis * 1000000 : Long.MAX_VALUE;
+		long budget = playouts > 0 ? (playouts + workers.length - 1) / workers.length : Long.MAX_VALUE;
+		long total = 0;
+		if (pool == null) {
+			workers[0].setRoot(b);
+			total = workers[0].run(budget, deadline);
+		}
+		else {
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for (Worker w : workers) {
+				w.setRoot(b);
+				tasks.add(() -> w.run(budget, deadline));
+			}
+			try {
+				for (Future<Long> f : pool.invokeAll(tasks)) total += f.get();
+			}
+			catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		lastPlayouts = total;
+		lastNanos = System.nanoTime() - start;
+
+		long[] visits = new long[PASS + 1];
+		for (Worker w : workers) {
+			Node[] children = w.root.children;
+			for (int i = 0; i < w.root.expanded; i++) visits[children[i].move] += children[i].visits;
+		}
+		int best = PASS;
+		for (int i = 0; i < PASS; i++) {
+			if (visits[i] > visits[best]) best = i;
+		}
+		if (best == PASS) return new Move(b.getPlayer());
+		return new Move(best >>> 3, best & 7, b.getPlayer());
+	}
+
+	/**
+	 * Gets the number of playouts in the last search
+	 * @return the number of playouts
+	 */
+	public long getPlayouts() {
+		return lastPlayouts;
+	}
+
+	/**
+	 * Gets the number of playouts per second in the last search, over all threads
+	 * @return the number of playouts per second
+	 */
+	public long playoutsPerSecond() {
+		if (lastNanos == 0) return 0;
+		return lastPlayouts * 1000000000L / lastNanos;
+	}
+
+	/**
+	 * A node of a tree. The wins are counted for the player who made the move into the node,
+	 * with a draw counting half
+	 */
+	protected static class Node {
+
+		protected int move;
+		protected int visits;
+		protected double wins;
+		protected Node[] children;
+		protected int expanded;
+
+		public Node(int move) {
+			this.move = move;
+		}
+	}
+
+	/**
+	 * One thread's tree and the compact board it plays on. The board is a bitboard for each
+	 * player, 0 for x and 1 for o, numbered as in Bitboard, and PASS stands for a pass
+	 */
+	protected class Worker {
+
+		protected int size;
+		protected long inside;
+		protected Node root;
+		protected long[] rootTiles = new long[2];
+		protected int rootPlayer;
+		protected long[] tiles = new long[2];
+		protected int player;
+		protected int[] buffer;
+		protected Node[] path;
+		protected long seed;
+
+		public Worker(long seed) {
+			this.seed = seed;
+		}
+
+		/**
+		 * Moves the root of the tree to a board. If the board is the old root or one or two
+		 * moves below it, that part of the tree is kept and the rest is dropped
+		 * @param b the board
+		 */
+		public void setRoot(Board b) {
+			if (size != b.size) {
+				size = b.size;
+				inside = Bitboard.inside(size);
+				buffer = new int[size * size];
+				path = new Node[2 * size * size + 2];
+				root = null;
+			}
+			Node found = null;
+			if (root != null) {
+				reset();
+				if (matches(b)) found = root;
+				for (int i = 0; found == null && i < root.expanded; i++) {
+					Node child = root.children[i];
+					reset();
+					play(child.move);
+					if (matches(b)) found = child;
+					for (int j = 0; found == null && child.children != null && j < child.expanded; j++) {
+						reset();
+						play(child.move);
+						play(child.children[j].move);
+						if (matches(b)) found = child.children[j];
+					}
+				}
+			}
+			root = found != null ? found : new Node(PASS);
+			rootTiles[0] = b.tiles(b.board, 'x');
+			rootTiles[1] = b.tiles(b.board, 'o');
+			rootPlayer = b.getPlayer() == 'x' ? 0 : 1;
+		}
+
+		/**
+		 * Checks if the compact board holds the same position as a board
+		 * @param b the board
+		 * @return if the positions are the same
+		 */
+		public boolean matches(Board b) {
+			if ((player == 0) != (b.getPlayer() == 'x')) return false;
+			return tiles[0] == b.tiles(b.board, 'x') && tiles[1] == b.tiles(b.board, 'o');
+		}
+
+		/**
+		 * Grows the tree until the budget runs out
+		 * @param budget the number of playouts
+		 * @param deadline the System.nanoTime() to stop at, or Long.MAX_VALUE
+		 * @return the number of playouts made
+		 */
+		public long run(long budget, long deadline) {
+			long n = 0;
+			while (n < budget && ((n & 15) != 0 || System.nanoTime() < deadline)) {
+				iterate();
+				n++;
+			}
+			return n;
+		}
+
+		/**
+		 * Copies the root position onto the compact board
+		 */
+		public void reset() {
+			tiles[0] = rootTiles[0];
+			tiles[1] = rootTiles[1];
+			player = rootPlayer;
+		}
+
+		/**
+		 * Runs one selection, expansion, playout and update
+		 */
+		public void iterate() {
+			reset();
+			Node node = root;
+			path[0] = root;
+			int depth = 1;
+			int winner = NONE;
+			while (true) {
+				if (node.children == null) expand(node);
+				Node child;
+				boolean fresh = node.expanded < node.children.length;
+				if (fresh) child = node.children[node.expanded++];
+				else child = select(node);
+				path[depth++] = child;
+				play(child.move);
+				if (legalMoves(player) == 0 && legalMoves(player ^ 1) == 0) {
+					winner = result();
+					break;
+				}
+				if (fresh) {
+					winner = playout();
+					break;
+				}
+				node = child;
+			}
+			path[0].visits++;
+			for (int i = 1; i < depth; i++) {
+				Node n = path[i];
+				n.visits++;
+				if (winner == DRAW) n.wins += 0.5;
+				else if (winner == (rootPlayer ^ ((i - 1) & 1))) n.wins += 1;
+			}
+		}
+
+		/**
+		 * Adds every legal move of the compact board as a child of a node, or a pass if there
+		 * are none
+		 * @param node the node
+		 */
+		public void expand(Node node) {
+			int n = generateMoves(player);
+			if (n == 0) {
+				node.children = new Node[] {new Node(PASS)};
+				return;
+			}
+			node.children = new Node[n];
+			for (int i = 0; i < n; i++) node.children[i] = new Node(buffer[i]);
+		}
+
+		/**
+		 * Picks the child with the best upper confidence bound
+		 * @param node the node, with every child visited
+		 * @return the child
+		 */
+		public Node select(Node node) {
+			double log = Math.log(node.visits);
+			Node best = null;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (Node child : node.children) {
+				double value = child.wins / child.visits + exploration * Math.sqrt(log / child.visits);
+				if (value > bestValue) {
+					bestValue = value;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays random moves on the compact board until neither player can move
+		 * @return the winner, or DRAW
+		 */
+		public int playout() {
+			int passes = 0;
+			while (passes < 2) {
+				int n = generateMoves(player);
+				if (n == 0) {
+					passes++;
+					player ^= 1;
+				}
+				else {
+					passes = 0;
+					play(buffer[random(n)]);
+				}
+			}
+			return result();
+		}
+
+		/**
+		 * Counts the tiles on the compact board
+		 * @return the player with more tiles, or DRAW
+		 */
+		public int result() {
+			int count = Long.bitCount(tiles[0]) - Long.bitCount(tiles[1]);
+			if (count > 0) return 0;
+			else if (count < 0) return 1;
+			else return DRAW;
+		}
+
+		/**
+		 * Finds the legal moves of a player on the compact board
+		 * @param p the player, 0 for x or 1 for o
+		 * @return a mask of the moves
+		 */
+		public long legalMoves(int p) {
+			return Bitboard.moves(tiles[p], tiles[p ^ 1], inside & ~(tiles[0] | tiles[1]));
+		}
+
+		/**
+		 * Writes the legal moves of a player into the buffer
+		 * @param p the player, 0 for x or 1 for o
+		 * @return the number of moves
+		 */
+		public int generateMoves(int p) {
+			int n = 0;
+			for (long moves = legalMoves(p); moves != 0; moves &= moves - 1) {
+				buffer[n++] = Long.numberOfTrailingZeros(moves);
+			}
+			return n;
+		}
+
+		/**
+		 * Plays a move on the compact board, flipping tiles, and switches players
+		 * @param square the square, or PASS
+		 */
+		public void play(int square) {
+			if (square != PASS) {
+				long move = 1L << square;
+				long flips = Bitboard.flips(tiles[player], tiles[player ^ 1], move);
+				tiles[player] |= move | flips;
+				tiles[player ^ 1] &= ~flips;
+			}
+			player ^= 1;
+		}
+
+		/**
+		 * Gets a random number with a xorshift generator
+		 * @param n the bound
+		 * @return a number from 0 to n - 1
+		 */
+		public int random(int n) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			return (int) ((seed >>> 33) * n >>> 31);
+		}
+	}
+}
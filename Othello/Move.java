@@ -2,6 +2,8 @@ import java.util.Scanner;
 
 public class Move {
 
+	// the searches keep a move as its square x * 8 + y, or PASS for the skip move
+	public static final int PASS = 64;
 	protected int x, y;
 	protected char player;
 	
@@ -35,6 +37,16 @@ public class Move {
 		player = p;
 	}
 	
+	public static Move of(int square, char p) {
+		if (square == PASS) return new Move(p);
+		return new Move(square >>> 3, square & 7, p);
+	}
+	
+	public int square() {
+		if (skipMove()) return PASS;
+		return x * 8 + y;
+	}
+	
 	public int getX() {
 		return x;
 	}
@@ -0,0 +1,574 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An opening book made from the results of finished games. For each position of the first
+ * plies of a game, and each move played from it, the book keeps how many games went through
+ * the move and how many points the player making it scored, two for a win and one for a draw.
+ * The book plays the move with the best average score among those played often enough.
+ *
+ * Positions are keyed by Board.key, which is the same for every rotation and reflection of a
+ * board, and moves are turned to the canonical board the key belongs to, as in the
+ * transposition table, so a game adds to every symmetric line at once. The book is a binary
+ * file of fixed-size records sorted by key and then move: a header of a magic number, the
+ * board size and the number of records, then for each record the key, the move and games
+ * packed into an int, and the points. The file is mapped into memory and never read into the
+ * heap, and a lookup is a binary search over the mapping.
+ *
+ * Games added to the book are kept in memory until the book is saved, when they are merged
+ * with the records of the file into a new sorted file. The new file is the next generation of
+ * the book, named with the generation after the book's name, and the book is opened from its
+ * latest generation. The old file is deleted once the new one is mapped, which on Windows may
+ * have to wait for a later save since a file cannot be deleted while it is still mapped.
+ *
+ * A merge reads the whole book, so a game can instead be appended to a log kept beside the
+ * file: its records, sorted by key, are added to the end of the log, which is read into memory
+ * with the book and merged into the next generation once it has MERGE_RECORDS records. A book
+ * is used by one thread at a time.
+ *
+ * Usage: java OpeningBook size selfplay games depth, to add self-play games searched to a
+ * depth, or java OpeningBook size import file, to add games written one a line as moves
+ * such as f5d6c3, or the finished games of a WTHOR archive if the file ends in .wtb
+ */
+public class OpeningBook {
+
+	public static final int MAGIC = 0x4F424B31;
+	public static final int HEADER = 16;
+	public static final int RECORD = 16;
+	public static final int MAX_GAMES = 0xFFFFFF;
+	public static final int SAVE_GAMES = 10000;
+	public static final int MERGE_RECORDS = 1 << 14;
+	protected int size;
+	protected Path name;
+	protected int generation;
+	protected Path path;
+	protected MappedByteBuffer records;
+	protected int count;
+	protected HashMap<Long, int[]> pending = new HashMap<Long, int[]>();
+	protected HashMap<Long, int[]> unlogged = new HashMap<Long, int[]>();
+	protected long logged;
+	protected int depth = 20;
+	protected int minGames = 2;
+
+	/**
+	 * Opens the book of a board size in the directory of the evaluation weights
+	 * @param size the width of the board
+	 * @return the book, empty if there is no file yet
+	 * @throws IOException if the file cannot be read or is not a book for this size
+	 */
+	public static OpeningBook forSize(int size) throws IOException {
+		return new OpeningBook(size, Paths.get(Evaluation.DIRECTORY, "othello-" + size + ".book"));
+	}
+
+	/**
+	 * Opens the latest generation of a book and reads its log
+	 * @param size the width of the board
+	 * @param name the name of the book, which need not exist yet
+	 * @throws IOException if the file cannot be read or is not a book for this size
+	 */
+	public OpeningBook(int size, Path name) throws IOException {
+		this.size = size;
+		this.name = name;
+		generation = -1;
+		List<Integer> old = new ArrayList<Integer>();
+		if (Files.exists(name)) generation = 0;
+		Path parent = name.toAbsolutePath().getParent();
+		String prefix = name.getFileName() + ".";
+		if (parent != null && Files.isDirectory(parent)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(parent, prefix + "*")) {
+				for (Path file : files) {
+					String suffix = file.getFileName().toString().substring(prefix.length());
+					if (!suffix.matches("[0-9]+")) continue;
+					int g = Integer.parseInt(suffix);
+					if (g > generation) {
+						if (generation >= 0) old.add(generation);
+						generation = g;
+					}
+					else old.add(g);
+				}
+			}
+		}
+		// generations a save could not delete are deleted now
+		for (int g : old) {
+			delete(generation(g));
+			delete(log(generation(g)));
+		}
+		if (generation < 0) generation = 0;
+		path = generation(generation);
+		if (Files.exists(path)) map();
+		readLog();
+	}
+
+	/**
+	 * Gets the file of a generation of the book
+	 * @param g the generation
+	 * @return the book's name for generation 0, and the name followed by the generation after
+	 */
+	public final Path generation(int g) {
+		if (g == 0) return name;
+		return Paths.get(name + "." + g);
+	}
+
+	/**
+	 * Gets the log of the games appended to a generation of the book
+	 * @param file the file of the generation
+	 * @return the log
+	 */
+	public static Path log(Path file) {
+		return Paths.get(file + ".log");
+	}
+
+	// deletes a file if it can, leaving a file another process or a mapping holds for later
+	public static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Maps the file into memory and checks its header
+	 * @throws IOException if the file cannot be read or is not a book for this size
+	 */
+	public final void map() throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER) throw new IOException(path + " is not an opening book");
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt(0) != MAGIC) throw new IOException(path + " is not an opening book");
+			if (buffer.getInt(4) != size) {
+				throw new IOException(path + " is a book for " + buffer.getInt(4) + "x" + buffer.getInt(4));
+			}
+			int n = buffer.getInt(8);
+			if (length != HEADER + (long) n * RECORD) throw new IOException(path + " is cut short");
+			records = buffer;
+			count = n;
+		}
+	}
+
+	/**
+	 * Reads the records of the log into the games not yet saved. A record cut short when a
+	 * game was being appended is left out
+	 * @throws IOException if the log cannot be read
+	 */
+	public final void readLog() throws IOException {
+		Path file = log(path);
+		if (!Files.exists(file)) return;
+		long n = Files.size(file) / RECORD;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			for (long i = 0; i < n; i++) {
+				long key = in.readLong();
+				int word = in.readInt();
+				int points = in.readInt();
+				add(pending, key, word & 0xFF, word >>> 8, points);
+			}
+		}
+		logged = n;
+	}
+
+	/**
+	 * Sets how many plies of each game are added to the book
+	 * @param depth the number of plies
+	 */
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	/**
+	 * Sets how many games a move needs before the book plays it
+	 * @param games the number of games
+	 */
+	public void setMinGames(int games) {
+		minGames = games;
+	}
+
+	/**
+	 * Gets the number of moves saved in the file
+	 * @return the number of records
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Gets where the book came from
+	 * @return the file and its number of moves, or "empty"
+	 */
+	public String getSource() {
+		if (records == null && logged == 0) return "empty";
+		String source = path + " (" + count + " moves";
+		if (logged > 0) source += ", " + logged + " in the log";
+		return source + ")";
+	}
+
+	public long key(int i) {
+		return records.getLong(HEADER + i * RECORD);
+	}
+
+	public int move(int i) {
+		return records.getInt(HEADER + i * RECORD + 8) & 0xFF;
+	}
+
+	public int games(int i) {
+		return records.getInt(HEADER + i * RECORD + 8) >>> 8;
+	}
+
+	public int points(int i) {
+		return records.getInt(HEADER + i * RECORD + 12);
+	}
+
+	/**
+	 * Finds the first record of a position by binary search on the mapping
+	 * @param key the key of the position
+	 * @return the index of the first record with a key no less than key
+	 */
+	public int find(long key) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (key(mid) < key) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Gets the games and points of every move of a position, from the file and from the games
+	 * not yet saved
+	 * @param key the key of the position
+	 * @return the games of canonical square s at 2 * s and its points at 2 * s + 1, or null if
+	 * the book has never seen the position
+	 */
+	public int[] stats(long key) {
+		int[] added = pending.get(key);
+		int[] stats = added == null ? null : added.clone();
+		for (int i = find(key); i < count && key(i) == key; i++) {
+			if (stats == null) stats = new int[128];
+			stats[2 * move(i)] += games(i);
+			stats[2 * move(i) + 1] += points(i);
+		}
+		return stats;
+	}
+
+	/**
+	 * Picks the move with the best average score among the moves played in enough games
+	 * @param b the board
+	 * @return the move, or null if the position is not in the book or has only one move
+	 */
+	public Move lookup(Board b) {
+		long legal = b.legalMoves(b.board, b.getPlayer());
+		if (Long.bitCount(legal) < 2) return null;
+		int[] stats = stats(b.key());
+		if (stats == null) return null;
+		int symmetry = b.symmetry();
+		int best = -1;
+		for (int s = 0; s < 64; s++) {
+			int games = stats[2 * s];
+			if (games == 0 || games < minGames) continue;
+			// a move that is not legal here comes from another position with the same key
+			int square = Bitboard.inverse(symmetry, s, size);
+			if ((legal & (1L << square)) == 0) continue;
+			if (best < 0) {
+				best = s;
+				continue;
+			}
+			long a = (long) stats[2 * s + 1] * stats[2 * best];
+			long c = (long) stats[2 * best + 1] * games;
+			if (a > c || (a == c && games > stats[2 * best])) best = s;
+		}
+		if (best < 0) return null;
+		return Move.of(Bitboard.inverse(symmetry, best, size), b.getPlayer());
+	}
+
+	/**
+	 * Adds a finished game, to be written when the book is saved
+	 * @param moves the moves of the game from the start, with or without its passes
+	 * @throws IllegalArgumentException if a move is not legal or the game is not over
+	 */
+	public void addGame(List<Move> moves) {
+		Board b = new Board(size);
+		b.newBoard();
+		List<Long> keys = new ArrayList<Long>();
+		List<Integer> squares = new ArrayList<Integer>();
+		List<Character> players = new ArrayList<Character>();
+		int ply = 0;
+		for (Move m : moves) {
+			if (!b.anyMoves(b.board, b.getPlayer())) b.currentPlayer = b.getOpponent();
+			if (m.skipMove()) continue;
+			if (m.getPlayer() != b.getPlayer() || !b.validMove(b.board, m)) {
+				throw new IllegalArgumentException("Illegal move at ply " + ply);
+			}
+			if (ply < depth && Long.bitCount(b.legalMoves(b.board, b.getPlayer())) > 1) {
+				keys.add(b.key());
+				squares.add(Bitboard.transform(b.symmetry(), m.square(), size));
+				players.add(b.getPlayer());
+			}
+			b = b.makeMove(b, m);
+			ply++;
+		}
+		if (!b.gameOver(b.board)) throw new IllegalArgumentException("The game is not over");
+		int result = b.terminalValue(b.board, 'x');
+		for (int i = 0; i < keys.size(); i++) {
+			int points = 1;
+			if (result == Integer.MAX_VALUE) points = players.get(i) == 'x' ? 2 : 0;
+			else if (result == Integer.MIN_VALUE) points = players.get(i) == 'o' ? 2 : 0;
+			add(pending, keys.get(i), squares.get(i), 1, points);
+			add(unlogged, keys.get(i), squares.get(i), 1, points);
+		}
+	}
+
+	// adds games and points to a move of a position in a map of stats
+	public static void add(HashMap<Long, int[]> map, long key, int move, int games, int points) {
+		int[] stats = map.computeIfAbsent(key, k -> new int[128]);
+		stats[2 * move] += games;
+		stats[2 * move + 1] += points;
+	}
+
+	// the keys of a map of stats in order
+	public static long[] sortedKeys(HashMap<Long, int[]> map) {
+		long[] keys = new long[map.size()];
+		int k = 0;
+		for (long key : map.keySet()) keys[k++] = key;
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * Appends the games added since they were last appended or saved to the log, as one
+	 * segment sorted by key, which costs the size of the games rather than the size of the
+	 * book. Once the log has MERGE_RECORDS records the book is saved, merging the log
+	 * @throws IOException if the log or the book cannot be written
+	 */
+	public void append() throws IOException {
+		if (unlogged.isEmpty()) return;
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) Files.createDirectories(parent);
+		try (FileChannel channel = FileChannel.open(log(path), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			// a record cut short by an earlier append is written over
+			channel.position(channel.size() / RECORD * RECORD);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			for (long key : sortedKeys(unlogged)) {
+				int[] stats = unlogged.get(key);
+				for (int s = 0; s < 64; s++) {
+					if (stats[2 * s] > 0) write(out, key, s, stats[2 * s], stats[2 * s + 1]);
+				}
+			}
+			out.flush();
+			logged = channel.size() / RECORD;
+		}
+		unlogged.clear();
+		if (logged >= MERGE_RECORDS) save();
+	}
+
+	/**
+	 * Merges the file with the games of the log and the games added since the last save into
+	 * the next generation of the book, which is written to a temporary file and moved into
+	 * place once it is complete. The new file is mapped, and the old file and its log are
+	 * deleted if nothing still holds them
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save() throws IOException {
+		if (pending.isEmpty() && records != null) return;
+		long[] keys = sortedKeys(pending);
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) Files.createDirectories(parent);
+		// the file of a new book is its first generation, as nothing maps it yet
+		int next = records == null && !Files.exists(log(path)) ? generation : generation + 1;
+		Path file = generation(next);
+		Path temp = Paths.get(file + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(HEADER);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			int i = 0;
+			for (long key : keys) {
+				for (; i < count && key(i) < key; i++) write(out, key(i), move(i), games(i), points(i));
+				int[] stats = pending.get(key);
+				for (int s = 0; s < 64; s++) {
+					int games = stats[2 * s];
+					int points = stats[2 * s + 1];
+					// the file has each move of a position once, in order
+					for (; i < count && key(i) == key && move(i) <= s; i++) {
+						if (move(i) == s) {
+							games += games(i);
+							points += points(i);
+						}
+						else write(out, key, move(i), games(i), points(i));
+					}
+					if (games > 0) write(out, key, s, games, points);
+				}
+			}
+			for (; i < count; i++) write(out, key(i), move(i), games(i), points(i));
+			out.flush();
+			long written = (channel.size() - HEADER) / RECORD;
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(size).putInt((int) written).putInt(0).flip();
+			channel.write(header, 0);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Path old = path;
+		generation = next;
+		path = file;
+		records = null;
+		map();
+		pending.clear();
+		unlogged.clear();
+		logged = 0;
+		if (!old.equals(path)) delete(old);
+		delete(log(old));
+	}
+
+	// writes one record, scaling the points down with the games past MAX_GAMES
+	public void write(DataOutputStream out, long key, int move, int games, int points) throws IOException {
+		if (games > MAX_GAMES) {
+			points = (int) ((long) points * MAX_GAMES / games);
+			games = MAX_GAMES;
+		}
+		out.writeLong(key);
+		out.writeInt(games << 8 | move);
+		out.writeInt(points);
+	}
+
+	/**
+	 * Reads a game written as moves such as f5d6c3, passes left out
+	 * @param line the moves
+	 * @param size the width of the board
+	 * @return the moves, each with its player
+	 * @throws IllegalArgumentException if a move is not legal
+	 */
+	public static List<Move> parseGame(String line, int size) {
+		List<Move> moves = new ArrayList<Move>();
+		Board b = new Board(size);
+		b.newBoard();
+		for (int i = 0; i + 1 < line.length(); i += 2) {
+			if (!b.anyMoves(b.board, b.getPlayer())) b.currentPlayer = b.getOpponent();
+			int x = Character.toLowerCase(line.charAt(i)) - 'a';
+			int y = line.charAt(i + 1) - '1';
+			Move m = new Move(x, y, b.getPlayer());
+			if (!b.validMove(b.board, m)) throw new IllegalArgumentException("Illegal move " + line.substring(i, i + 2));
+			moves.add(m);
+			b = b.makeMove(b, m);
+		}
+		return moves;
+	}
+
+	/**
+	 * Plays a self-play game that starts with a few random moves
+	 * @param size the width of the board
+	 * @param depth the depth of the h-minimax searches
+	 * @param random the random numbers
+	 * @return the moves of the game
+	 */
+	public static List<Move> selfPlay(int size, int depth, Random random) {
+		Search search = new Search(new TranspositionTable(16));
+		Board b = new Board(size);
+		b.newBoard();
+		List<Move> moves = new ArrayList<Move>();
+		for (int ply = 0; !b.gameOver(b.board); ply++) {
+			if (!b.anyMoves(b.board, b.getPlayer())) b.currentPlayer = b.getOpponent();
+			LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+			Move m;
+			if (ply < 2 || random.nextInt(20) == 0) m = actions.get(random.nextInt(actions.size()));
+			else m = search.hMinimax(b, depth);
+			moves.add(m);
+			b = b.makeMove(b, m);
+		}
+		return moves;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: java OpeningBook size selfplay games depth");
+			System.out.println("       java OpeningBook size import file");
+			return;
+		}
+		int size = Integer.parseInt(args[0]);
+		OpeningBook book = forSize(size);
+		long start = System.nanoTime();
+		if (args[1].equals("import")) {
+			int games = 0;
+			// saving now and then keeps the games held in memory few, however long the file
+			if (args[2].toLowerCase().endsWith(".wtb")) {
+				if (size != 8) {
+					System.out.println("WTHOR archives hold 8x8 games");
+					return;
+				}
+				try (GameArchive archive = new GameArchive(Paths.get(args[2]))) {
+					// a game stopped by a resignation or the clock has no result to learn from
+					for (Iterator<GameArchive.Record> it = archive.games().filter(GameArchive.Record::isFinished).iterator(); it.hasNext();) {
+						book.addGame(it.next().getMoves());
+						if (++games % SAVE_GAMES == 0) book.save();
+					}
+				}
+			}
+			else {
+				try (BufferedReader in = Files.newBufferedReader(Paths.get(args[2]))) {
+					String line;
+					while ((line = in.readLine()) != null) {
+						line = line.trim();
+						if (line.isEmpty() || line.startsWith("#")) continue;
+						book.addGame(parseGame(line, size));
+						if (++games % SAVE_GAMES == 0) book.save();
+					}
+				}
+			}
+			book.save();
+			System.out.printf("Imported %d games%n", games);
+		}
+		else {
+			int games = Integer.parseInt(args[2]);
+			int depth = Integer.parseInt(args[3]);
+			List<Future<List<Move>>> results = new ArrayList<Future<List<Move>>>();
+			ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			try {
+				for (int i = 0; i < games; i++) {
+					Random random = new Random(System.nanoTime() + i);
+					results.add(executor.submit(() -> selfPlay(size, depth, random)));
+				}
+				for (int i = 0; i < games; i++) {
+					book.addGame(results.get(i).get());
+					// save as the games finish, so a long run that is stopped keeps its games
+					if ((i + 1) % 100 == 0 || i + 1 == games) {
+						book.save();
+						System.out.printf("%d/%d games, %.0f s%n", i + 1, games, (System.nanoTime() - start) / 1e9);
+					}
+				}
+			}
+			catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+		System.out.println("Book: " + book.getSource());
+	}
+}
@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Lazy SMP for the h-minimax root. Every thread searches the whole root at once with its own
+ * Search, and all of them share one lock-free transposition table, so what one thread
+ * learns about a position orders the moves and cuts the searches of the others. To keep the
+ * threads from walking the same tree in step, every other helper searches one ply deeper and
+ * each helper starts with a different root move. The first thread to finish its search stops
+ * all the others; if more than one finishes, the deepest result wins, and the main thread's
+ * result wins a tie. The main thread is the one that calls searchRoot, and it runs on the
+ * Search that owns this object, so only the helpers need a pool.
+ */
+public class ParallelSearch {
+
+	protected ForkJoinPool pool;
+	protected Search[] helpers;
+	protected Search[] searches;
+	protected Move bestMove;
+	protected int bestValue;
+	protected int bestDepth;
+	protected int bestThread;
+
+	/**
+	 * Creates a parallel search
+	 * @param threads the number of threads, counting the main thread
+	 * @param table the transposition table shared by every thread
+	 */
+	public ParallelSearch(int threads, TranspositionTable table) {
+		pool = new ForkJoinPool(threads - 1);
+		helpers = new Search[threads - 1];
+		for (int i = 0; i < helpers.length; i++) helpers[i] = new Search(table);
+		searches = new Search[threads];
+		System.arraycopy(helpers, 0, searches, 1, helpers.length);
+	}
+
+	/**
+	 * Gets the number of threads searching
+	 * @return the number of threads, counting the main thread
+	 */
+	public int getThreads() {
+		return helpers.length + 1;
+	}
+
+	/**
+	 * Searches every move of a board on all the threads
+	 * @param main the search of the calling thread
+	 * @param b the board, which is not changed
+	 * @param length the depth
+	 * @param first the move the main thread searches first, or null
+	 * @param alpha the alpha of the window
+	 * @param beta the beta of the window
+	 * @return the best move of the thread that won, or null if time ran out first
+	 */
+	public Move searchRoot(Search main, Board b, int length, Move first, int alpha, int beta) {
+		searches[0] = main;
+		bestMove = null;
+		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int i = 0; i < helpers.length; i++) {
+			Search helper = helpers[i];
+			helper.deadline = main.deadline;
+			helper.timeUp = false;
+			helper.stopped = false;
+			helper.confidence = main.confidence;
+			int thread = i + 1;
+			int depth = length + (thread & 1);
+			Move start = actions.get(thread % actions.size());
+			Board copy = b.copy();
+			tasks.add(pool.submit(() -> run(helper, thread, copy, depth, start, alpha, beta)));
+		}
+		main.stopped = false;
+		run(main, 0, b, length, first, alpha, beta);
+		for (Future<?> f : tasks) {
+			try {
+				f.get();
+			}
+			catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		main.stopped = false;
+		if (SearchStats.ENABLED) {
+			for (Search helper : helpers) main.stats.merge(helper.stats);
+		}
+		// only the clock can stop every thread before one finishes
+		main.timeUp = bestMove == null;
+		if (bestMove == null) return null;
+		main.rootValue = bestValue;
+		return bestMove;
+	}
+
+	/**
+	 * Searches the root on one thread and stops the others if it finishes
+	 * @param s the thread's search
+	 * @param thread the number of the thread, 0 for the main thread
+	 * @param b the board
+	 * @param length the depth
+	 * @param first the move to search first, or null
+	 * @param alpha the alpha of the window
+	 * @param beta the beta of the window
+	 */
+	public void run(Search s, int thread, Board b, int length, Move first, int alpha, int beta) {
+		Move m = s.searchRootH(b, length, first, alpha, beta);
+		if (m != null) finish(thread, m, s.rootValue, length);
+	}
+
+	/**
+	 * Records a finished search if it beats the ones already finished, and stops every thread
+	 * @param thread the number of the thread
+	 * @param m the best move it found
+	 * @param value its value
+	 * @param depth the depth it searched
+	 */
+	public synchronized void finish(int thread, Move m, int value, int depth) {
+		if (bestMove == null || depth > bestDepth || (depth == bestDepth && thread < bestThread)) {
+			bestMove = m;
+			bestValue = value;
+			bestDepth = depth;
+			bestThread = thread;
+		}
+		for (Search s : searches) s.stopped = true;
+	}
+
+	/**
+	 * Gets the number of nodes each thread has searched
+	 * @param main the search of the main thread
+	 * @return the counts, the main thread's first
+	 */
+	public long[] threadNodes(Search main) {
+		long[] nodes = new long[helpers.length + 1];
+		nodes[0] = main.nodes;
+		for (int i = 0; i < helpers.length; i++) nodes[i + 1] = helpers[i].nodes;
+		return nodes;
+	}
+
+	/**
+	 * Resets the node counts of the helpers
+	 */
+	public void resetNodes() {
+		for (Search helper : helpers) helper.nodes = 0;
+	}
+
+	/**
+	 * Shuts down the threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
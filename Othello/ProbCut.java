@@ -0,0 +1,345 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Multi-ProbCut for the h-minimax search. The score of a deep search is close to a linear
+ * function of the score of a shallow search of the same position, deep = a * shallow + b,
+ * with a normally distributed error of deviation sigma. So before searching a node to a
+ * height d, a search to a height d' much smaller than d can show, with a chosen confidence,
+ * that the deep score will fall outside the window, and the node is cut without the deep
+ * search. A confidence of t cuts when the deep score is predicted to be t deviations past
+ * the bound: a fail high needs a shallow score of at least (beta + t * sigma - b) / a, and a
+ * fail low one of at most (alpha - t * sigma - b) / a, which a null-window search checks.
+ *
+ * Each height from MIN_HEIGHT to MAX_HEIGHT is checked from two shallow heights, the
+ * cheapest with the same parity and the one nearest half the height, since Othello scores
+ * swing with whose turn it is at the leaves. The parameters are fitted separately for each
+ * stage of the game. They are read at startup from othello-N.probcut in the directory of
+ * the evaluation weights, and a pair that has not been fitted is never used.
+ *
+ * The parameters are fitted from self-play: games start with a few random moves and go on
+ * with shallow searches and an occasional random move, positions are sampled from them,
+ * each sample is searched to every height with an empty table, and each pair of heights is
+ * fitted by least squares.
+ *
+ * Usage: java ProbCut size positions maxHeight file, to fit the parameters and write them
+ */
+public class ProbCut {
+
+	public static final int MIN_HEIGHT = 3;
+	public static final int MAX_HEIGHT = 10;
+	public static final int STAGES = 4;
+	protected static final ProbCut[] PROBCUTS = new ProbCut[9];
+	protected int size;
+	protected int cells;
+	protected double[][][] slopes = new double[STAGES][MAX_HEIGHT + 1][MAX_HEIGHT + 1];
+	protected double[][][] offsets = new double[STAGES][MAX_HEIGHT + 1][MAX_HEIGHT + 1];
+	protected double[][][] sigmas = new double[STAGES][MAX_HEIGHT + 1][MAX_HEIGHT + 1];
+	protected int[][] checks = new int[MAX_HEIGHT + 1][];
+	protected String source;
+
+	/**
+	 * Gets the parameters of a board size, reading them the first time
+	 * @param size the width of the board
+	 * @return the parameters, with no pairs fitted if there is no file
+	 */
+	public static synchronized ProbCut forSize(int size) {
+		if (PROBCUTS[size] == null) {
+			ProbCut p = new ProbCut(size);
+			Path path = Paths.get(Evaluation.DIRECTORY, "othello-" + size + ".probcut");
+			if (Files.isReadable(path)) {
+				try {
+					p.load(path);
+				}
+				catch (IOException ex) {
+					throw new IllegalStateException("Could not read ProbCut parameters from " + path, ex);
+				}
+			}
+			PROBCUTS[size] = p;
+		}
+		return PROBCUTS[size];
+	}
+
+	/**
+	 * Creates the parameters of a board size with no pairs fitted
+	 * @param size the width of the board
+	 */
+	public ProbCut(int size) {
+		this.size = size;
+		cells = size * size;
+		for (int d = MIN_HEIGHT; d <= MAX_HEIGHT; d++) {
+			int cheap = 2 - d % 2;
+			int half = (d + 1) / 2;
+			if (half % 2 != d % 2) half--;
+			checks[d] = half > cheap ? new int[] {cheap, half} : new int[] {cheap};
+		}
+		source = "not fitted";
+	}
+
+	/**
+	 * Gets the stage of the game a position is in
+	 * @param empties the number of empty squares
+	 * @return the stage, from 0 at the start to STAGES - 1
+	 */
+	public int stage(int empties) {
+		return Math.min(STAGES - 1, (cells - empties) * STAGES / cells);
+	}
+
+	/**
+	 * Gets the shallow heights a height is checked from, cheapest first
+	 * @param height the height of the deep search
+	 * @return the shallow heights, or null if the height is never checked
+	 */
+	public int[] checks(int height) {
+		if (height < MIN_HEIGHT || height > MAX_HEIGHT) return null;
+		return checks[height];
+	}
+
+	/**
+	 * Checks if a pair of heights has been fitted for a stage
+	 * @param stage the stage
+	 * @param height the height of the deep search
+	 * @param shallow the height of the shallow search
+	 * @return if the pair can be used
+	 */
+	public boolean fitted(int stage, int height, int shallow) {
+		return sigmas[stage][height][shallow] > 0;
+	}
+
+	/**
+	 * Gets the lowest shallow score that predicts a deep score of at least beta
+	 * @param stage the stage
+	 * @param height the height of the deep search
+	 * @param shallow the height of the shallow search
+	 * @param beta the bound
+	 * @param confidence the number of deviations the prediction has to clear the bound by
+	 * @return the shallow bound, which may be outside the range of an int
+	 */
+	public long highBound(int stage, int height, int shallow, int beta, double confidence) {
+		double a = slopes[stage][height][shallow];
+		double b = offsets[stage][height][shallow];
+		double sigma = sigmas[stage][height][shallow];
+		return (long) Math.ceil((beta + confidence * sigma - b) / a);
+	}
+
+	/**
+	 * Gets the highest shallow score that predicts a deep score of at most alpha
+	 * @param stage the stage
+	 * @param height the height of the deep search
+	 * @param shallow the height of the shallow search
+	 * @param alpha the bound
+	 * @param confidence the number of deviations the prediction has to clear the bound by
+	 * @return the shallow bound, which may be outside the range of an int
+	 */
+	public long lowBound(int stage, int height, int shallow, int alpha, double confidence) {
+		double a = slopes[stage][height][shallow];
+		double b = offsets[stage][height][shallow];
+		double sigma = sigmas[stage][height][shallow];
+		return (long) Math.floor((alpha - confidence * sigma - b) / a);
+	}
+
+	/**
+	 * Fits every pair of heights from the scores of sample positions
+	 * @param stages the stage of each sample
+	 * @param scores the score of each sample at every height, from 1 up
+	 */
+	public void fit(int[] stages, int[][] scores) {
+		for (int stage = 0; stage < STAGES; stage++) {
+			for (int d = MIN_HEIGHT; d <= MAX_HEIGHT; d++) {
+				for (int shallow : checks[d]) {
+					int n = 0;
+					double sx = 0, sy = 0, sxx = 0, sxy = 0;
+					for (int i = 0; i < scores.length; i++) {
+						if (stages[i] != stage || scores[i].length <= d) continue;
+						double x = scores[i][shallow];
+						double y = scores[i][d];
+						n++;
+						sx += x;
+						sy += y;
+						sxx += x * x;
+						sxy += x * y;
+					}
+					double variance = n * sxx - sx * sx;
+					if (n < 10 || variance <= 0) continue;
+					double a = (n * sxy - sx * sy) / variance;
+					double b = (sy - a * sx) / n;
+					if (a <= 0) continue;
+					double squares = 0;
+					for (int i = 0; i < scores.length; i++) {
+						if (stages[i] != stage || scores[i].length <= d) continue;
+						double e = scores[i][d] - a * scores[i][shallow] - b;
+						squares += e * e;
+					}
+					slopes[stage][d][shallow] = a;
+					offsets[stage][d][shallow] = b;
+					sigmas[stage][d][shallow] = Math.max(1, Math.sqrt(squares / (n - 2)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the parameters from a file: a line for each fitted pair with the stage, the two
+	 * heights, a, b and sigma. Lines starting with # are skipped
+	 * @param path the file
+	 * @throws IOException if the file cannot be read or a line does not fit this board
+	 */
+	public void load(Path path) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(path)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] tokens = line.split("\\s+");
+				if (tokens.length != 6) throw new IOException("Bad line " + line + " in " + path);
+				int stage = Integer.parseInt(tokens[0]);
+				int d = Integer.parseInt(tokens[1]);
+				int shallow = Integer.parseInt(tokens[2]);
+				if (stage < 0 || stage >= STAGES || d < MIN_HEIGHT || d > MAX_HEIGHT || shallow < 1 || shallow >= d) {
+					throw new IOException("Bad heights " + line + " in " + path);
+				}
+				slopes[stage][d][shallow] = Double.parseDouble(tokens[3]);
+				offsets[stage][d][shallow] = Double.parseDouble(tokens[4]);
+				sigmas[stage][d][shallow] = Double.parseDouble(tokens[5]);
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Bad number in " + path, e);
+		}
+		source = path.toString();
+	}
+
+	/**
+	 * Writes the fitted pairs to a file that load reads
+	 * @param path the file
+	 * @param comment a line describing where the parameters came from
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(Path path, String comment) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+			out.println("# Othello Multi-ProbCut parameters for " + size + "x" + size + ": deep = a * shallow + b");
+			out.println("# " + comment);
+			out.println("# stage height shallow a b sigma");
+			for (int stage = 0; stage < STAGES; stage++) {
+				for (int d = MIN_HEIGHT; d <= MAX_HEIGHT; d++) {
+					for (int shallow : checks[d]) {
+						if (!fitted(stage, d, shallow)) continue;
+						out.printf("%d %d %d %.4f %.1f %.1f%n", stage, d, shallow, slopes[stage][d][shallow],
+								offsets[stage][d][shallow], sigmas[stage][d][shallow]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets where the parameters came from
+	 * @return the file, or "not fitted"
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Plays self-play games and samples positions from them, one position a game at a random
+	 * move before the endgame solver would take over
+	 * @param size the width of the board
+	 * @param count the number of positions
+	 * @param random the random numbers
+	 * @param minEmpties the fewest empty squares a sample may have
+	 * @return the positions
+	 */
+	public static List<Board> samples(int size, int count, Random random, int minEmpties) {
+		List<Board> positions = new ArrayList<Board>();
+		Search search = new Search(new TranspositionTable(16));
+		search.setEndgameEmpties(0);
+		while (positions.size() < count) {
+			Board b = new Board(size);
+			b.newBoard();
+			int target = random.nextInt(size * size - 4 - minEmpties) + 1;
+			for (int ply = 0; ply < target && !b.gameOver(b.board); ply++) {
+				if (!b.anyMoves(b.board, b.getPlayer())) b.currentPlayer = b.getOpponent();
+				LinkedList<Move> actions = b.actions(b.board, b.getPlayer());
+				Move m;
+				if (ply < 4 || random.nextInt(10) == 0) m = actions.get(random.nextInt(actions.size()));
+				else m = search.hMinimax(b, 1);
+				b = b.makeMove(b, m);
+			}
+			if (b.gameOver(b.board) || b.empties() < minEmpties) continue;
+			if (!b.anyMoves(b.board, b.getPlayer())) continue;
+			positions.add(b);
+		}
+		return positions;
+	}
+
+	/**
+	 * Searches a position to every height with full windows and an empty table each time,
+	 * so no height borrows a deeper result
+	 * @param b the position
+	 * @param maxHeight the deepest height
+	 * @return the scores for x, from height 1 at index 1, cut short at a won or lost game
+	 */
+	public static int[] scores(Board b, int maxHeight) {
+		Search search = new Search(new TranspositionTable(18));
+		search.setEndgameEmpties(0);
+		search.setProbCut(0);
+		int[] scores = new int[maxHeight + 1];
+		for (int d = 1; d <= maxHeight; d++) {
+			search.getTable().clear();
+			int v;
+			if (b.getPlayer() == 'x') v = search.maxValueH(b, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, d);
+			else v = search.minValueH(b, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, d);
+			if (v == Integer.MIN_VALUE || v == Integer.MAX_VALUE) {
+				int[] shorter = new int[d];
+				System.arraycopy(scores, 0, shorter, 0, d);
+				return shorter;
+			}
+			scores[d] = v;
+		}
+		return scores;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.out.println("Usage: java ProbCut size positions maxHeight file");
+			return;
+		}
+		int size = Integer.parseInt(args[0]);
+		int count = Integer.parseInt(args[1]);
+		int maxHeight = Math.min(MAX_HEIGHT, Integer.parseInt(args[2]));
+		ProbCut p = new ProbCut(size);
+		List<Board> positions = samples(size, count, new Random(7), maxHeight);
+		int[] stages = new int[count];
+		int[][] scores = new int[count][];
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			Board b = positions.get(i);
+			stages[i] = p.stage(b.empties());
+			scores[i] = scores(b, maxHeight);
+			if ((i + 1) % 10 == 0) {
+				System.out.printf("%d/%d positions, %.0f s%n", i + 1, count, (System.nanoTime() - start) / 1e9);
+			}
+		}
+		p.fit(stages, scores);
+		p.save(Paths.get(args[3]), count + " self-play positions searched to height " + maxHeight);
+		for (int d = MIN_HEIGHT; d <= maxHeight; d++) {
+			for (int shallow : p.checks[d]) {
+				StringBuilder s = new StringBuilder();
+				for (int stage = 0; stage < STAGES; stage++) {
+					if (p.fitted(stage, d, shallow)) s.append(String.format(" %.2f/%.0f", p.slopes[stage][d][shallow],
+							p.sigmas[stage][d][shallow]));
+					else s.append(" -");
+				}
+				System.out.println("height " + d + " from " + shallow + ": a/sigma by stage" + s);
+			}
+		}
+	}
+}
@@ -3,8 +3,156 @@ import java.util.Random;
 
 public class Search {
 	
+	public static final int END_OF_GAME = 0xFF;
+	public static final double PROBCUT = Double.parseDouble(System.getProperty("othello.probcut", "0"));
+	protected TranspositionTable table;
+	protected long nodes;
+	protected SearchStats stats = new SearchStats();
+	protected Endgame endgame;
+	protected int endgameEmpties = Integer.getInteger("othello.endgame", 20);
+	protected long deadline = Long.MAX_VALUE;
+	protected boolean timeUp;
+	protected volatile boolean stopped;
+	protected ParallelSearch parallel;
+	protected int rootValue;
+	protected int window = Integer.getInteger("othello.window", 0);
+	protected ProbCut probCut;
+	protected double confidence = PROBCUT;
+	// the moves of each ply, played in place on the board so a search allocates nothing per node
+	protected int[][] moveLists = new int[Board.MAX_PLY + 1][64];
+	
 	public Search() {
-		
+		this(new TranspositionTable(18));
+	}
+	
+	// the table may be shared with searches on other threads
+	public Search(TranspositionTable table) {
+		this.table = table;
+	}
+	
+	public TranspositionTable getTable() {
+		return table;
+	}
+	
+	// with more than one thread, h-minimax hands the root to a ParallelSearch sharing the table
+	public void setThreads(int threads) {
+		if (parallel != null) parallel.shutdown();
+		if (threads > 1) parallel = new ParallelSearch(threads, table);
+		else parallel = null;
+	}
+	
+	public int getThreads() {
+		if (parallel == null) return 1;
+		return parallel.getThreads();
+	}
+	
+	public void shutdown() {
+		if (parallel != null) parallel.shutdown();
+	}
+	
+	// the nodes of every thread
+	public long getNodes() {
+		if (parallel == null) return nodes;
+		long n = 0;
+		for (long threadNodes : parallel.threadNodes(this)) n += threadNodes;
+		return n;
+	}
+	
+	// the nodes of each thread, this one first
+	public long[] getThreadNodes() {
+		if (parallel == null) return new long[] {nodes};
+		return parallel.threadNodes(this);
+	}
+	
+	public void resetNodes() {
+		nodes = 0;
+		if (parallel != null) parallel.resetNodes();
+	}
+	
+	public SearchStats getStats() {
+		return stats;
+	}
+	
+	public void setEndgameEmpties(int empties) {
+		endgameEmpties = empties;
+	}
+	
+	public Endgame getEndgame() {
+		return endgame;
+	}
+	
+	// the value of the last root searched, for the player x
+	public int getValue() {
+		return rootValue;
+	}
+	
+	// the first aspiration window of a timed search, 0 for eight points of square value
+	public void setWindow(int window) {
+		this.window = window;
+	}
+	
+	// Multi-ProbCut in the H functions, cutting when the deep score is predicted to be this many
+	// deviations outside the window; 0 searches every move
+	public void setProbCut(double confidence) {
+		this.confidence = confidence;
+	}
+	
+	public double getProbCut() {
+		return confidence;
+	}
+	
+	// counts a node, reading the clock and the stop from other threads every 1024 nodes; once
+	// time is up every node returns at once
+	public boolean outOfTime() {
+		if (SearchStats.ENABLED) stats.node();
+		if (!timeUp && (++nodes & 1023) == 0 && (stopped || System.nanoTime() > deadline)) timeUp = true;
+		return timeUp;
+	}
+	
+	public String square(Move m) {
+		if (m.skipMove()) return "pass";
+		return (char) ('a' + m.getX()) + "" + (m.getY() + 1);
+	}
+	
+	public boolean cutoff(long entry, int depth, int alpha, int beta) {
+		if (entry == 0 || TranspositionTable.depth(entry) < depth) return false;
+		int value = TranspositionTable.value(entry);
+		int bound = TranspositionTable.bound(entry);
+		return bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && value >= beta) ||
+				(bound == TranspositionTable.UPPER && value <= alpha);
+	}
+	
+	// the key is the same for every symmetry of the board, so moves are stored as on the canonical board
+	public void store(Board b, long key, int v, int depth, int alpha, int beta, int move) {
+		int bound = TranspositionTable.EXACT;
+		if (v <= alpha) bound = TranspositionTable.UPPER;
+		else if (v >= beta) bound = TranspositionTable.LOWER;
+		if (move < TranspositionTable.PASS) move = Bitboard.transform(b.symmetry(), move, b.size);
+		table.store(key, v, depth, bound, move);
+	}
+	
+	// puts the stored best move first, turned back from the canonical board
+	public void orderFirst(Board b, int[] moves, int n, long entry) {
+		if (entry == 0) return;
+		int move = TranspositionTable.move(entry);
+		if (move >= TranspositionTable.PASS) return;
+		orderFirst(moves, n, Bitboard.inverse(b.symmetry(), move, b.size));
+	}
+	
+	// the other moves keep their order
+	public void orderFirst(int[] moves, int n, int move) {
+		for (int i = 0; i < n; i++) {
+			if (moves[i] == move) {
+				System.arraycopy(moves, 0, moves, 1, i);
+				moves[0] = move;
+				return;
+			}
+		}
+	}
+	
+	public Move finish(String search, Move m) {
+		if (SearchStats.ENABLED) stats.end(search, square(m));
+		return m;
 	}
 	
 	
@@ -18,23 +166,33 @@ public class Search {
 	
 	// MINIMAX
 	public int maxValueMinimax(Board b) {
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
 		if (b.gameOver(b.board)) return b.terminalValue(b.board, b.getPlayer());
 		int v = Integer.MIN_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			v = Math.max(v, minValueMinimax(newBoard));
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		if (SearchStats.ENABLED) stats.expand(n);
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
+			v = Math.max(v, minValueMinimax(b));
+			b.undo();
 		}
 		return v;
 	}
 	
 	public int minValueMinimax(Board b) {
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
 		if (b.gameOver(b.board)) return b.terminalValue(b.board, b.getPlayer());
 		int v = Integer.MAX_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			v = Math.min(v, maxValueMinimax(newBoard));
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		if (SearchStats.ENABLED) stats.expand(n);
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
+			v = Math.min(v, maxValueMinimax(b));
+			b.undo();
 		}
 		return v;
 	}
@@ -56,131 +214,418 @@ public class Search {
 	}*/
 	
 	public Move minimax(Board b) {
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
+		if (SearchStats.ENABLED) stats.begin();
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		char player = b.currentPlayer;
 		int maxVal = Integer.MIN_VALUE;
 		int minVal = Integer.MAX_VALUE;
-		Move bestMove = null;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
+		int bestMove = moves[0];
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
 			int value;
-			if (b.currentPlayer == 'x') value = minValueMinimax(newBoard);
-			else value = maxValueMinimax(newBoard);
-			if (b.currentPlayer == 'x' && value > maxVal) {
+			if (player == 'x') value = minValueMinimax(b);
+			else value = maxValueMinimax(b);
+			b.undo();
+			if (player == 'x' && value > maxVal) {
 				maxVal = value;
-				bestMove = m;
+				bestMove = moves[i];
 			}
-			else if (b.currentPlayer == 'o' && value < minVal) {
+			else if (player == 'o' && value < minVal) {
 				minVal = value;
-				bestMove = m;
+				bestMove = moves[i];
 			}
 		}
-		return bestMove;
+		return finish("minimax", Move.of(bestMove, player));
 	}
 	
 	// MINIMAX ALPHA-BETA PRUNING
 	public int maxValueAB(Board b, int alpha, int beta) {
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
 		if (b.gameOver(b.board)) return b.terminalValue(b.board, b.getPlayer());
+		long key = b.key();
+		long entry = table.probe(key);
+		if (cutoff(entry, END_OF_GAME, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		int originalAlpha = alpha;
 		int v = Integer.MIN_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m); //HERE
-			v = Math.max(v, minValueAB(newBoard, alpha, beta));
-			if (v >= beta) return v;
+		int move = TranspositionTable.NO_MOVE;
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		orderFirst(b, moves, n, entry);
+		if (SearchStats.ENABLED) stats.expand(n);
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
+			int value = minValueAB(b, alpha, beta);
+			b.undo();
+			if (value > v) {
+				v = value;
+				move = moves[i];
+			}
+			if (v >= beta) {
+				if (SearchStats.ENABLED) stats.cutoff(i);
+				break;
+			}
 			alpha = Math.max(alpha, v);
 		}
+		store(b, key, v, END_OF_GAME, originalAlpha, beta, move);
 		return v;
 	}
 	
 	public int minValueAB(Board b, int alpha, int beta) {
+		nodes++;
+		if (SearchStats.ENABLED) stats.node();
 		if (b.gameOver(b.board)) return b.terminalValue(b.board, b.getPlayer());
+		long key = b.key();
+		long entry = table.probe(key);
+		if (cutoff(entry, END_OF_GAME, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		int originalBeta = beta;
 		int v = Integer.MAX_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m); //HERE
-			v = Math.min(v, maxValueAB(newBoard, alpha, beta));
-			if (v <= alpha) return v;
+		int move = TranspositionTable.NO_MOVE;
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		orderFirst(b, moves, n, entry);
+		if (SearchStats.ENABLED) stats.expand(n);
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
+			int value = maxValueAB(b, alpha, beta);
+			b.undo();
+			if (value < v) {
+				v = value;
+				move = moves[i];
+			}
+			if (v <= alpha) {
+				if (SearchStats.ENABLED) stats.cutoff(i);
+				break;
+			}
 			beta = Math.min(beta, v);
 		}
+		store(b, key, v, END_OF_GAME, alpha, originalBeta, move);
 		return v;
 	}
 	
 	public Move abMinimax(Board b) {
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
+		if (SearchStats.ENABLED) stats.begin();
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		char player = b.currentPlayer;
 		int maxVal = Integer.MIN_VALUE;
 		int minVal = Integer.MAX_VALUE;
 		int alpha = Integer.MIN_VALUE;
 		int beta = Integer.MAX_VALUE;
-		Move bestMove = null;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
+		int bestMove = moves[0];
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
 			int value;
-			if (b.currentPlayer == 'x') value = minValueAB(newBoard, alpha, beta);
-			else value = maxValueAB(newBoard, alpha, beta);
-			if (b.currentPlayer == 'x' && value > maxVal) {
+			if (player == 'x') value = minValueAB(b, alpha, beta);
+			else value = maxValueAB(b, alpha, beta);
+			b.undo();
+			if (player == 'x' && value > maxVal) {
 				maxVal = value;
-				bestMove = m;
+				bestMove = moves[i];
 			}
-			else if (b.currentPlayer == 'o' && value < minVal) {
+			else if (player == 'o' && value < minVal) {
 				minVal = value;
-				bestMove = m;
+				bestMove = moves[i];
 			}
+			if (player == 'x') alpha = Math.max(alpha, value);
+			else beta = Math.min(beta, value);
 		}
-		return bestMove;
+		return finish("abMinimax", Move.of(bestMove, player));
 	}
 	
 	// HEURISTIC MINIMAX ALPHA-BETA PRUNING
 	public int maxValueH(Board b, int alpha, int beta, int count, int length) {
+		if (outOfTime()) return 0;
 		if (b.gameOver(b.board)) return b.terminalValue(b.board, b.getPlayer());
+		if (count >= length) return b.evaluate();
+		long key = b.key();
+		long entry = table.probe(key);
+		if (cutoff(entry, length - count, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		if (confidence > 0) {
+			int cut = probCut(b, alpha, beta, count, length);
+			if (timeUp) return 0;
+			if (cut > 0) return beta;
+			if (cut < 0) return alpha;
+		}
+		int originalAlpha = alpha;
 		int v = Integer.MIN_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
-		int heuristic = b.numberOfMoves(b) + b.numberOfCorners(b) + b.numberOfSecondLine(b);
-		if (count >= length) return heuristic;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			if (count < length) v = Math.max(v, minValueH(newBoard, alpha, beta, count + 1, length));
-			if (v >= beta) return heuristic;
+		int move = TranspositionTable.NO_MOVE;
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		orderFirst(b, moves, n, entry);
+		if (SearchStats.ENABLED) stats.expand(n);
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
+			int value = minValueH(b, alpha, beta, count + 1, length);
+			b.undo();
+			if (timeUp) return 0;
+			if (value > v) {
+				v = value;
+				move = moves[i];
+			}
+			if (v >= beta) {
+				if (SearchStats.ENABLED) stats.cutoff(i);
+				break;
+			}
 			alpha = Math.max(alpha, v);
 		}
+		store(b, key, v, length - count, originalAlpha, beta, move);
 		return v;
 	}
 	
 	public int minValueH(Board b, int alpha, int beta, int count, int length) {
+		if (outOfTime()) return 0;
 		if (b.gameOver(b.board)) return b.terminalValue(b.board, b.getPlayer());
+		if (count >= length) return b.evaluate();
+		long key = b.key();
+		long entry = table.probe(key);
+		if (cutoff(entry, length - count, alpha, beta)) {
+			if (SearchStats.ENABLED) stats.tableCutoff();
+			return TranspositionTable.value(entry);
+		}
+		if (confidence > 0) {
+			int cut = probCut(b, alpha, beta, count, length);
+			if (timeUp) return 0;
+			if (cut > 0) return beta;
+			if (cut < 0) return alpha;
+		}
+		int originalBeta = beta;
 		int v = Integer.MAX_VALUE;
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
-		int heuristic = b.numberOfMoves(b) + b.numberOfCorners(b) + b.numberOfSecondLine(b);
-		if (count >= length) return heuristic;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
-			if (count < length) v = Math.min(v, maxValueH(newBoard, alpha, beta, count + 1, length));
-			if (v <= alpha) return heuristic;
+		int move = TranspositionTable.NO_MOVE;
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		orderFirst(b, moves, n, entry);
+		if (SearchStats.ENABLED) stats.expand(n);
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
+			int value = maxValueH(b, alpha, beta, count + 1, length);
+			b.undo();
+			if (timeUp) return 0;
+			if (value < v) {
+				v = value;
+				move = moves[i];
+			}
+			if (v <= alpha) {
+				if (SearchStats.ENABLED) stats.cutoff(i);
+				break;
+			}
 			beta = Math.min(beta, v);
 		}
+		store(b, key, v, length - count, alpha, originalBeta, move);
 		return v;
 	}
 	
+	// searches a node to a shallower height with a null window, first checking for a fail high
+	// and then a fail low from each fitted shallow height; 1 predicts a fail high, -1 a fail low
+	public int probCut(Board b, int alpha, int beta, int count, int length) {
+		if (probCut == null || probCut.size != b.size) probCut = ProbCut.forSize(b.size);
+		int height = length - count;
+		int[] checks = probCut.checks(height);
+		if (checks == null) return 0;
+		int stage = probCut.stage(b.empties());
+		for (int shallow : checks) {
+			if (!probCut.fitted(stage, height, shallow)) continue;
+			if (beta != Integer.MAX_VALUE) {
+				long bound = probCut.highBound(stage, height, shallow, beta, confidence);
+				if (bound > Integer.MIN_VALUE + 1 && bound < Integer.MAX_VALUE) {
+					int v = valueH(b, (int) bound - 1, (int) bound, count, count + shallow);
+					if (timeUp) return 0;
+					if (v >= bound) return 1;
+				}
+			}
+			if (alpha != Integer.MIN_VALUE) {
+				long bound = probCut.lowBound(stage, height, shallow, alpha, confidence);
+				if (bound > Integer.MIN_VALUE && bound < Integer.MAX_VALUE - 1) {
+					int v = valueH(b, (int) bound, (int) bound + 1, count, count + shallow);
+					if (timeUp) return 0;
+					if (v <= bound) return -1;
+				}
+			}
+		}
+		return 0;
+	}
+	
+	public int valueH(Board b, int alpha, int beta, int count, int length) {
+		if (b.currentPlayer == 'x') return maxValueH(b, alpha, beta, count, length);
+		return minValueH(b, alpha, beta, count, length);
+	}
+	
 	public Move hMinimax(Board b, int length) {
-		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
+		if (b.empties() <= endgameEmpties) return solve(b);
+		if (SearchStats.ENABLED) stats.begin();
+		Move bestMove = root(b, length, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if (SearchStats.ENABLED) stats.iteration(length);
+		return finish("hMinimax", bestMove);
+	}
+	
+	public Move root(Board b, int length, Move first, int alpha, int beta) {
+		if (parallel != null) return parallel.searchRoot(this, b, length, first, alpha, beta);
+		return searchRootH(b, length, first, alpha, beta);
+	}
+	
+	// searches every move inside a window, the first move given first; a move whose value
+	// leaves the window ends the search, and null means time ran out. The board is played on in
+	// place and left as it was, so each thread needs its own
+	public Move searchRootH(Board b, int length, Move first, int alpha, int beta) {
+		int[] moves = moveLists[b.ply];
+		int n = b.generateMoves(moves);
+		if (first != null) orderFirst(moves, n, first.square());
+		char player = b.currentPlayer;
 		int maxVal = Integer.MIN_VALUE;
 		int minVal = Integer.MAX_VALUE;
-		int alpha = Integer.MIN_VALUE;
-		int beta = Integer.MAX_VALUE;
-		Move bestMove = null;
-		for (Move m : actions) {
-			Board newBoard = b.makeMove(b, m);
+		int bestMove = moves[0];
+		for (int i = 0; i < n; i++) {
+			b.play(moves[i]);
 			int value;
 			int count = 0;
-			if (b.currentPlayer == 'x') value = minValueH(newBoard, alpha, beta, count, length);
-			else value = maxValueH(newBoard, alpha, beta, count, length);
-			if (b.currentPlayer == 'x' && value > maxVal) {
+			if (player == 'x') value = minValueH(b, alpha, beta, count, length);
+			else value = maxValueH(b, alpha, beta, count, length);
+			b.undo();
+			if (timeUp) return null;
+			if (player == 'x' && value > maxVal) {
 				maxVal = value;
-				bestMove = m;
+				bestMove = moves[i];
 			}
-			else if (b.currentPlayer == 'o' && value < minVal) {
+			else if (player == 'o' && value < minVal) {
 				minVal = value;
-				bestMove = m;
+				bestMove = moves[i];
+			}
+			if (player == 'x') {
+				if (value >= beta) break;
+				alpha = Math.max(alpha, value);
+			}
+			else {
+				if (value <= alpha) break;
+				beta = Math.min(beta, value);
+			}
+		}
+		rootValue = player == 'x' ? maxVal : minVal;
+		return Move.of(bestMove, player);
+	}
+	
+	// TIMED H-MINIMAX WITH ITERATIVE DEEPENING
+	public Move timedHMinimax(Board b, long millis) {
+		return timedHMinimax(b, millis, millis);
+	}
+	
+	// spends the time the clock hands out for this move, and charges the clock for it
+	public Move timedHMinimax(Board b, Clock clock) {
+		clock.start();
+		int empties = b.empties();
+		Move m = timedHMinimax(b, clock.softLimit(empties), clock.hardLimit(empties));
+		clock.stop();
+		return m;
+	}
+	
+	// deepens one ply at a time, with no new iteration once half the soft limit is gone and a
+	// stop in the middle of an iteration at the hard limit; an unfinished iteration is thrown away
+	public Move timedHMinimax(Board b, long soft, long hard) {
+		if (SearchStats.ENABLED) stats.begin();
+		long start = System.nanoTime();
+		deadline = start + hard * 1000000;
+		timeUp = false;
+		LinkedList<Move> actions = b.actions(b.board, b.currentPlayer);
+		if (actions.size() == 1) return endTimed(actions.getFirst());
+		int empties = b.empties();
+		boolean solving = empties <= endgameEmpties;
+		// in the endgame a short search finds a move to fall back on, and the solver gets the rest
+		long stop = start + (solving ? soft / 4 : soft / 2) * 1000000;
+		Move bestMove = deepen(b, empties, stop);
+		if (solving && !timeUp) {
+			if (endgame == null) endgame = new Endgame();
+			long before = endgame.getNodes();
+			Move m = endgame.bestMove(b, deadline);
+			nodes += endgame.getNodes() - before;
+			if (m != null) bestMove = m;
+		}
+		if (bestMove == null) {
+			// not even the first iteration finished, so take a one-ply search without the clock
+			deadline = Long.MAX_VALUE;
+			timeUp = false;
+			bestMove = searchRootH(b, 1, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+		return endTimed(bestMove);
+	}
+	
+	// ITERATIVE DEEPENING TO A FIXED DEPTH, FOR ANALYSIS
+	public Move iterativeHMinimax(Board b, int length) {
+		if (SearchStats.ENABLED) stats.begin();
+		Move m = deepen(b, length, Long.MAX_VALUE);
+		return finish("iterativeHMinimax", m);
+	}
+	
+	// deepens one ply at a time with aspiration windows, starting no iteration after stop; gives
+	// the best move of the deepest iteration that finished, or null
+	public Move deepen(Board b, int maxDepth, long stop) {
+		int delta = window > 0 ? window : 8 * b.evaluation.getScale();
+		Move bestMove = null;
+		int value = 0;
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			int alpha = Integer.MIN_VALUE;
+			int beta = Integer.MAX_VALUE;
+			int d = delta;
+			// the window is centred on the last score unless that score was a win or a loss
+			if (bestMove != null && value != Integer.MIN_VALUE && value != Integer.MAX_VALUE) {
+				alpha = widen(value, -d);
+				beta = widen(value, d);
 			}
+			Move first = bestMove;
+			Move m;
+			while (true) {
+				m = root(b, depth, first, alpha, beta);
+				if (m == null) break;
+				// a move that beat the window for the player to move is searched first next time
+				if (rootValue <= alpha && alpha != Integer.MIN_VALUE) {
+					d *= 2;
+					alpha = widen(rootValue, -d);
+					if (b.currentPlayer == 'o') first = m;
+				}
+				else if (rootValue >= beta && beta != Integer.MAX_VALUE) {
+					d *= 2;
+					beta = widen(rootValue, d);
+					if (b.currentPlayer == 'x') first = m;
+				}
+				else break;
+			}
+			if (m == null) break;
+			bestMove = m;
+			value = rootValue;
+			if (SearchStats.ENABLED) stats.iteration(depth);
+			if (value == Integer.MIN_VALUE || value == Integer.MAX_VALUE) break;
+			if (System.nanoTime() > stop) break;
 		}
 		return bestMove;
 	}
+	
+	// moves a bound of the window, opening it all the way rather than past the win and loss values
+	public int widen(int value, int delta) {
+		long v = (long) value + delta;
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v));
+	}
+	
+	public Move endTimed(Move m) {
+		deadline = Long.MAX_VALUE;
+		timeUp = false;
+		return finish("timedHMinimax", m);
+	}
+	
+	// EXACT ENDGAME
+	public Move solve(Board b) {
+		if (SearchStats.ENABLED) stats.begin();
+		if (endgame == null) endgame = new Endgame();
+		long before = endgame.getNodes();
+		Move m = endgame.bestMove(b);
+		nodes += endgame.getNodes() - before;
+		return finish("solve", m);
+	}
 }
@@ -0,0 +1,216 @@
+import java.util.Locale;
+
+/**
+ * Counters for the searches behind one move: nodes, nodes expanded and the moves they had,
+ * alpha-beta cutoffs, table cutoffs, and the time and nodes of each iteration of a deepening
+ * search. Each thread counts into its own SearchStats with plain fields, and the counts of
+ * helper threads are merged into the main thread's when the search returns. A finished move
+ * is committed as a SearchEvent for Flight Recorder and can be printed as one line of JSON.
+ *
+ * Every call site checks ENABLED first. It is a static final set from the search.stats system
+ * property (java -Dsearch.stats=true) when the class loads, so with it off the JIT folds the
+ * checks away and the counters cost nothing.
+ */
+public class SearchStats {
+
+	public static final boolean ENABLED = Boolean.getBoolean("search.stats");
+	public static final int MAX_ITERATIONS = 64;
+	protected long nodes;
+	protected long interior;
+	protected long children;
+	protected long cutoffs;
+	protected long firstCutoffs;
+	protected long tableCutoffs;
+	protected int iterations;
+	protected int[] iterationDepths = new int[MAX_ITERATIONS];
+	protected long[] iterationNanos = new long[MAX_ITERATIONS];
+	protected long[] iterationNodes = new long[MAX_ITERATIONS];
+	protected long start;
+	protected long lastIteration;
+	protected long lastIterationNodes;
+	protected long nanos;
+	protected String search;
+	protected String move;
+	protected SearchEvent event;
+
+	/**
+	 * Counts a node
+	 */
+	public void node() {
+		nodes++;
+	}
+
+	/**
+	 * Counts a node whose moves are searched
+	 * @param moves the number of moves
+	 */
+	public void expand(int moves) {
+		interior++;
+		children += moves;
+	}
+
+	/**
+	 * Counts an alpha-beta cutoff
+	 * @param index the position of the move that caused it in the searched order
+	 */
+	public void cutoff(int index) {
+		cutoffs++;
+		if (index == 0) firstCutoffs++;
+	}
+
+	/**
+	 * Counts a node settled by the transposition table
+	 */
+	public void tableCutoff() {
+		tableCutoffs++;
+	}
+
+	/**
+	 * Resets the counters and starts timing a move
+	 */
+	public void begin() {
+		reset();
+		start = System.nanoTime();
+		lastIteration = start;
+		event = new SearchEvent();
+		event.begin();
+	}
+
+	/**
+	 * Records the time and nodes of an iteration that finished
+	 * @param depth the depth of the iteration
+	 */
+	public void iteration(int depth) {
+		if (iterations == MAX_ITERATIONS) return;
+		long now = System.nanoTime();
+		iterationDepths[iterations] = depth;
+		iterationNanos[iterations] = now - lastIteration;
+		iterationNodes[iterations] = nodes - lastIterationNodes;
+		iterations++;
+		lastIteration = now;
+		lastIterationNodes = nodes;
+	}
+
+	/**
+	 * Stops timing a move and commits it to Flight Recorder if it is recording
+	 * @param search the name of the search
+	 * @param move the square chosen, such as d3, or pass
+	 */
+	public void end(String search, String move) {
+		nanos = System.nanoTime() - start;
+		this.search = search;
+		this.move = move;
+		if (event == null) return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.search = search;
+			event.move = move;
+			event.depth = getDepth();
+			event.nodes = nodes;
+			event.leaves = getLeaves();
+			event.branchingFactor = branchingFactor();
+			event.cutoffs = cutoffs;
+			event.firstMoveCutoffs = firstCutoffs;
+			event.tableCutoffs = tableCutoffs;
+			event.commit();
+		}
+		event = null;
+	}
+
+	/**
+	 * Adds the counts of another thread's stats to these, and resets the other's
+	 * @param other the other stats
+	 */
+	public void merge(SearchStats other) {
+		nodes += other.nodes;
+		interior += other.interior;
+		children += other.children;
+		cutoffs += other.cutoffs;
+		firstCutoffs += other.firstCutoffs;
+		tableCutoffs += other.tableCutoffs;
+		other.nodes = 0;
+		other.interior = 0;
+		other.children = 0;
+		other.cutoffs = 0;
+		other.firstCutoffs = 0;
+		other.tableCutoffs = 0;
+	}
+
+	/**
+	 * Resets every counter
+	 */
+	public void reset() {
+		nodes = 0;
+		interior = 0;
+		children = 0;
+		cutoffs = 0;
+		firstCutoffs = 0;
+		tableCutoffs = 0;
+		iterations = 0;
+		lastIterationNodes = 0;
+		nanos = 0;
+	}
+
+	/**
+	 * Gets the number of nodes
+	 * @return the number of nodes
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Gets the number of nodes given a value without searching their moves: finished games,
+	 * nodes at the depth limit, and nodes settled by the table
+	 * @return the number of leaves
+	 */
+	public long getLeaves() {
+		return nodes - interior - tableCutoffs;
+	}
+
+	/**
+	 * Gets the depth of the last iteration that finished
+	 * @return the depth, or -1 if the search does not iterate
+	 */
+	public int getDepth() {
+		if (iterations == 0) return -1;
+		return iterationDepths[iterations - 1];
+	}
+
+	/**
+	 * Gets the average number of moves of the nodes that were expanded
+	 * @return the branching factor
+	 */
+	public double branchingFactor() {
+		if (interior == 0) return 0;
+		return (double) children / interior;
+	}
+
+	/**
+	 * Gets how often the first move searched caused a cutoff
+	 * @return the fraction of cutoffs made by the first move
+	 */
+	public double firstMoveCutoffRate() {
+		if (cutoffs == 0) return 0;
+		return (double) firstCutoffs / cutoffs;
+	}
+
+	/**
+	 * Writes the last move's stats as one line of JSON
+	 * @return the JSON
+	 */
+	public String summary() {
+		StringBuilder s = new StringBuilder();
+		s.append(String.format(Locale.ROOT, "{\"search\":\"%s\",\"move\":\"%s\",\"depth\":%d,\"millis\":%.3f," +
+				"\"nodes\":%d,\"interior\":%d,\"leaves\":%d,\"branchingFactor\":%.3f,\"cutoffs\":%d," +
+				"\"firstMoveCutoffRate\":%.4f,\"tableCutoffs\":%d,\"iterations\":[", search, move, getDepth(),
+				nanos / 1e6, nodes, interior, getLeaves(), branchingFactor(), cutoffs,
+				firstMoveCutoffRate(), tableCutoffs));
+		for (int i = 0; i < iterations; i++) {
+			if (i > 0) s.append(',');
+			s.append(String.format(Locale.ROOT, "{\"depth\":%d,\"millis\":%.3f,\"nodes\":%d}",
+					iterationDepths[i], iterationNanos[i] / 1e6, iterationNodes[i]));
+		}
+		return s.append("]}").toString();
+	}
+}